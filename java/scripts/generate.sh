@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#set the script to exit out on error
+set -e
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#generate orders for the users and menu in the database
+#usage: generate.sh <out dir | copy> <orders>, e.g. generate.sh ../../data 1000000
+#Use your database name and portss, -Dcafe.generate.seed=<n> picks another data set
+java -cp $DIR/../classes:$CLASSPATH Cafe mydb $PGPORT generate ${1:-$DIR/../../data} ${2:-100000}
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#set the script to exit out on error
+set -e
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#load the data files with COPY, pass "replace" to empty the tables first
+#Use your database name and portss, the data directory defaults to ../../data
+java -cp $DIR/../classes:$CLASSPATH Cafe mydb $PGPORT import ${1:-$DIR/../../data} $2
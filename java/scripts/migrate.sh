@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#set the script to exit out on error
+set -e
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#bring the database schema up to date while the application keeps running, see MigrationRunner
+#Use your database name and portss
+java -cp $DIR/../classes:$CLASSPATH Cafe mydb $PGPORT migrate
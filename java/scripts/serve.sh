@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#set the script to exit out on error
+set -e
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#serve the menus to every register, connect with: nc localhost <listen port>
+#Use your database name and portss, the listen port defaults to 5050
+java -cp $DIR/../classes:$CLASSPATH Cafe mydb $PGPORT serve ${1:-5050}
+
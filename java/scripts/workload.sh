@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#set the script to exit out on error
+set -e
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#run N customers and M employees against the database, see WorkloadDriver for the settings
+#Use your database name and portss
+java -cp $DIR/../classes:$CLASSPATH Cafe mydb $PGPORT workload ${1:-20} ${2:-4}
@@ -0,0 +1,335 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class loads the ';' separated files in the data directory into the
+ * database with COPY ... FROM STDIN, streamed through the connection by
+ * the driver's CopyManager, so the files only have to exist on the client.
+ *
+ * Users, Menu and Orders do not depend on each other and are loaded in
+ * parallel on separate pooled connections, ItemStatus follows once its
+ * Orders and Menu rows are in.  Each file is read by a background thread
+ * while the previous chunk is being sent.
+ *
+ */
+public class BulkLoader {
+
+   /**
+    * One table and the file it is loaded from
+    */
+   private static class Table {
+      final String name;
+      final String file;
+      final String columns;
+      final AtomicLong rows = new AtomicLong();
+      volatile long started = 0;
+      volatile long finished = 0;
+
+      Table (String name, String file, String columns) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+      }//end Table
+   }//end Table
+
+   // size of the chunks read ahead of the COPY stream
+   private static final int CHUNK_SIZE = 1 << 16;
+
+   // chunks read ahead of the COPY stream
+   private static final int CHUNKS_AHEAD = 8;
+
+   private final Cafe _esql;
+   private final ExecutorService _workers = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "cafe-import");
+      t.setDaemon(true);
+      return t;
+   });
+
+   public BulkLoader (Cafe esql) {
+      this._esql = esql;
+   }//end BulkLoader
+
+   /**
+    * Loads every data file found in the directory
+    *
+    * @param dir the directory holding users.csv, menu.csv, orders.csv and itemStatus.csv
+    * @param replace empty the tables first
+    * @throws java.lang.Exception when a table failed to load
+    */
+   public void load (File dir, boolean replace) throws Exception {
+      Table users = new Table("Users", "users.csv", "login, phoneNum, password, favItems, type");
+      Table menu = new Table("Menu", "menu.csv", "itemName, type, price, description, imageURL");
+      Table orders = new Table("Orders", "orders.csv", "orderid, login, paid, timeStampRecieved, total");
+      Table items = new Table("ItemStatus", "itemStatus.csv", "orderid, itemName, lastUpdated, status, comments");
+      Table[] all = { users, menu, orders, items };
+
+      if (replace) {
+         System.out.println("Emptying Users, Menu, Orders and ItemStatus...");
+         this._esql.executeUpdate("TRUNCATE ItemStatus, Orders, Menu, Users");
+      }//end if
+
+      Thread progress = startProgress(all);
+      try {
+         // independent tables first, in parallel
+         List<Future<?>> running = new ArrayList<Future<?>>();
+         for (Table table : new Table[] { users, menu, orders })
+            running.add(this._workers.submit(() -> { load(dir, table); return null; }));
+         for (Future<?> f : running)
+            f.get();
+
+         // ItemStatus references Orders and Menu
+         load(dir, items);
+      } finally {
+         progress.interrupt();
+         progress.join();
+         this._workers.shutdownNow();
+      }//end try
+
+      if (orders.finished > 0) {
+         // new orders must continue after the loaded ids
+         this._esql.executeUpdate("SELECT setval('orders_orderid_seq', COALESCE((SELECT max(orderid) FROM Orders), 0) + 1, false)");
+         System.out.println("orders_orderid_seq reset after the loaded orders");
+      }//end if
+      for (Table table : all)
+         if (table.finished > 0)
+            System.out.println(String.format("%-12s %,12d rows %8.1f s %,12.0f rows/s", table.name,
+                                             table.rows.get(), seconds(table), table.rows.get() / seconds(table)));
+      this._esql.reloadMenu();
+   }//end load
+
+   private void load (File dir, Table table) throws Exception {
+      File file = new File(dir, table.file);
+      if (!file.isFile()) {
+         System.out.println("Skipping " + table.name + ", " + file + " not found");
+         return;
+      }//end if
+      ConnectionPool pool = this._esql.getPool();
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      boolean broken = false;
+      Reader reader = new ReadAheadReader(file, table.rows, this._workers);
+      try {
+         Connection conn = pc.connection;
+         conn.setAutoCommit(false);
+         try {
+            Statement stmt = conn.createStatement();
+            // the loaded totals already include their items, the prices are filled in
+            // by copyItemStatus, and nobody watches historical orders: skip the
+            // total, price and notify triggers (not the foreign keys)
+            if (table.name.equals("ItemStatus"))
+               stmt.executeUpdate("ALTER TABLE ItemStatus DISABLE TRIGGER USER");
+            table.started = System.nanoTime();
+            if (table.name.equals("ItemStatus"))
+               copyItemStatus(conn, reader);
+            else
+               copyIn(conn, "COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ';'", reader);
+            if (table.name.equals("ItemStatus"))
+               stmt.executeUpdate("ALTER TABLE ItemStatus ENABLE TRIGGER USER");
+            stmt.close();
+            conn.commit();
+            table.finished = System.nanoTime();
+         } catch (Exception e) {
+            try {
+               conn.rollback();
+            } catch (SQLException ignored) {
+               broken = true;
+            }//end try
+            throw e;
+         } finally {
+            conn.setAutoCommit(true);
+         }//end try
+      } finally {
+         reader.close();
+         if (broken)
+            pool.discard(pc);
+         else
+            pool.release(pc);
+      }//end try
+   }//end load
+
+   /**
+    * Streams the reader into a COPY ... FROM STDIN statement through the
+    * PostgreSQL driver's CopyManager.  The driver is only needed at run
+    * time, so it is reached through reflection like the Driver class.
+    *
+    * @param conn a PostgreSQL connection
+    * @param sql the COPY statement
+    * @param reader the rows in COPY text format
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the copy failed
+    */
+   public static long copyIn (Connection conn, String sql, Reader reader) throws SQLException, IOException {
+      try {
+         Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+         Object copyApi = pgConnection.getMethod("getCopyAPI").invoke(conn.unwrap(pgConnection));
+         Method copy = copyApi.getClass().getMethod("copyIn", String.class, Reader.class, int.class);
+         return (Long) copy.invoke(copyApi, sql, reader, CHUNK_SIZE);
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof SQLException)
+            throw (SQLException) cause;
+         if (cause instanceof IOException)
+            throw (IOException) cause;
+         throw new SQLException(cause);
+      } catch (ReflectiveOperationException e) {
+         throw new SQLException("The PostgreSQL driver's CopyManager is not available", e);
+      }//end try
+   }//end copyIn
+
+   /**
+    * Copies ItemStatus rows in the layout of itemStatus.csv, which has no
+    * unit prices, through a temporary table that gives every item the
+    * current menu price.  Has to run inside a transaction.
+    *
+    * @param conn a PostgreSQL connection
+    * @param reader the rows in COPY text format
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the copy failed
+    */
+   public static long copyItemStatus (Connection conn, Reader reader) throws SQLException, IOException {
+      try (Statement stmt = conn.createStatement()) {
+         stmt.executeUpdate("CREATE TEMP TABLE itemstatus_load ON COMMIT DROP AS " +
+                            "SELECT orderid, itemName, lastUpdated, status, comments FROM ItemStatus WITH NO DATA");
+         long rows = copyIn(conn, "COPY itemstatus_load FROM STDIN WITH DELIMITER ';'", reader);
+         // an unknown item gets no price and fails the insert, as its foreign key would
+         stmt.executeUpdate("INSERT INTO ItemStatus (orderid, itemName, lastUpdated, status, comments, unitPrice) " +
+                            "SELECT L.orderid, L.itemName, L.lastUpdated, L.status, L.comments, M.price " +
+                            "FROM itemstatus_load L LEFT JOIN Menu M ON M.itemName = L.itemName");
+         return rows;
+      }//end try
+   }//end copyItemStatus
+
+   private static double seconds (Table table) {
+      return Math.max(1, table.finished - table.started) / 1e9;
+   }//end seconds
+
+   private static Thread startProgress (Table[] tables) {
+      Thread t = new Thread(() -> {
+         long[] last = new long[tables.length];
+         try {
+            while (true) {
+               Thread.sleep(1000);
+               StringBuilder line = new StringBuilder();
+               for (int i = 0; i < tables.length; ++i) {
+                  Table table = tables[i];
+                  if (table.started == 0 || table.finished != 0)
+                     continue;
+                  long rows = table.rows.get();
+                  line.append(String.format("  %s %,d rows (%,d rows/s)", table.name, rows, rows - last[i]));
+                  last[i] = rows;
+               }//end for
+               if (line.length() > 0)
+                  System.out.println("Loading..." + line);
+            }//end while
+         } catch (InterruptedException e) {
+            // loading finished.
+         }//end try
+      }, "cafe-import-progress");
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }//end startProgress
+
+   /**
+    * Reads a file on a background thread, a few chunks ahead of the
+    * consumer, and counts the lines handed out.
+    */
+   private static class ReadAheadReader extends Reader {
+      private static final char[] EOF = new char[0];
+
+      private final BlockingQueue<char[]> _chunks = new ArrayBlockingQueue<char[]>(CHUNKS_AHEAD);
+      private final AtomicLong _lines;
+      private final Future<?> _producer;
+      private volatile IOException _failure;
+      private char[] _chunk = null;
+      private int _pos = 0;
+
+      ReadAheadReader (File file, AtomicLong lines, ExecutorService workers) {
+         this._lines = lines;
+         this._producer = workers.submit(() -> {
+            try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+               while (true) {
+                  char[] buffer = new char[CHUNK_SIZE];
+                  int n = in.read(buffer);
+                  if (n < 0)
+                     break;
+                  this._chunks.put(n == buffer.length ? buffer : java.util.Arrays.copyOf(buffer, n));
+               }//end while
+            } catch (IOException e) {
+               this._failure = e;
+            } catch (InterruptedException e) {
+               return;
+            }//end try
+            try {
+               this._chunks.put(EOF);
+            } catch (InterruptedException e) {
+               // consumer is gone.
+            }//end try
+         });
+      }//end ReadAheadReader
+
+      @Override
+      public int read (char[] buffer, int offset, int length) throws IOException {
+         if (this._chunk == null || this._pos == this._chunk.length) {
+            if (this._chunk == EOF)
+               return -1;
+            try {
+               this._chunk = this._chunks.take();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IOException("interrupted while reading ahead");
+            }//end try
+            this._pos = 0;
+            if (this._chunk == EOF) {
+               if (this._failure != null)
+                  throw this._failure;
+               return -1;
+            }//end if
+         }//end if
+         int n = Math.min(length, this._chunk.length - this._pos);
+         System.arraycopy(this._chunk, this._pos, buffer, offset, n);
+         long lines = 0;
+         for (int i = 0; i < n; ++i)
+            if (buffer[offset + i] == '\n')
+               ++lines;
+         this._lines.addAndGet(lines);
+         this._pos += n;
+         return n;
+      }//end read
+
+      @Override
+      public void close () {
+         this._producer.cancel(true);
+      }//end close
+   }//end ReadAheadReader
+
+}//end BulkLoader
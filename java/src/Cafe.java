@@ -14,15 +14,27 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.lang.Object;
 import java.text.Format;
 import java.text.NumberFormat;
@@ -35,16 +47,105 @@ import java.text.DecimalFormat;
  */
 public class Cafe {
 
-   //login info for later use
-   private static String authorisedUser = null;
+   // pool of physical database connections, borrowed per operation.
+   private ConnectionPool _pool = null;
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // maximum number of prepared statements kept open per connection
+   private static final int STATEMENT_CACHE_SIZE = 64;
+
+   // parameters of statements without placeholders
+   private static final Object[] NO_PARAMS = new Object[0];
+
+   // starts the System.err line of a change that lost to a concurrent one
+   public static final String CONFLICT = "Conflict: ";
+
+   // connection pool settings, can be overridden with -Dcafe.pool.<name>=<value>
+   private static final int POOL_MIN_SIZE = Integer.getInteger("cafe.pool.minSize", 1);
+   private static final int POOL_MAX_SIZE = Integer.getInteger("cafe.pool.maxSize", 16);
+   private static final long POOL_MAX_WAIT_MILLIS = Long.getLong("cafe.pool.maxWaitMillis", 30000L);
+   private static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("cafe.pool.idleTimeoutMillis", 300000L);
+   private static final long POOL_VALIDATE_AFTER_MILLIS = Long.getLong("cafe.pool.validateAfterMillis", 5000L);
+
+   // recent successful logins, null unless -Dcafe.auth.cache=true
+   private final CredentialCache _credentials =
+      Boolean.getBoolean("cafe.auth.cache")
+         ? new CredentialCache(Integer.getInteger("cafe.auth.cacheSize", 100000),
+                               Long.getLong("cafe.auth.cacheTtlMillis", 600000L))
+         : null;
+
+   // cached copy of the Menu table, replaced as a whole when it changes
+   private final AtomicReference<MenuSnapshot> _menu = new AtomicReference<MenuSnapshot>(MenuSnapshot.EMPTY);
+
+   // time (System.nanoTime) after which the MenuVersion is checked again
+   private final AtomicLong _menuCheckAt = new AtomicLong();
+
+   // how often the cached menu is compared with the MenuVersion in the database
+   private static final long MENU_CHECK_MILLIS = Long.getLong("cafe.menu.checkMillis", 2000L);
+
+   // unpaid orders of the last 24 hours, served to ViewCurrentOrder
+   private final OpenOrders _openOrders = new OpenOrders();
+
+   // time (System.nanoTime) after which the open orders are read again
+   private final AtomicLong _openOrdersSeedAt = new AtomicLong();
+
+   // how often the open orders are read again, to pick up other processes' changes
+   private static final long OPEN_ORDERS_REFRESH_MILLIS = Long.getLong("cafe.openOrders.refreshMillis", 60000L);
+
+   // last orders of the users that viewed their history recently
+   private final RecentOrders _recentOrders =
+      new RecentOrders(Integer.getInteger("cafe.history.cacheSize", 100000),
+                       Long.getLong("cafe.history.cacheTtlMillis", 60000L));
+
+   // attempts of a compare-and-set update whose row keeps changing underneath
+   private static final int CAS_ATTEMPTS = Integer.getInteger("cafe.cas.attempts", 3);
+
+   // latency, rows and errors of every statement, see QueryMetrics
+   private final QueryMetrics _metrics = new QueryMetrics();
+
+   // statements by fingerprint and the slow ones, see SlowQueryLog
+   private SlowQueryLog _slowLog = null;
+
+   // item status changes pushed by the database, started by the first watcher
+   private OrderFeed _feed = null;
 
    // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // This variable can be global for convenience, it reads from the
+   // session of the calling thread (the console unless running as a server).
+   static BufferedReader in = new Session.Input();
+
+   /**
+    * A unit of database work run on a borrowed connection
+    */
+   private interface ConnectionWork<T> {
+      T run (ConnectionPool.PooledConnection pc) throws SQLException;
+   }//end ConnectionWork
+
+   /**
+    * Receives the rows of query(), one call per row
+    */
+   public interface RowHandler {
+      void row (ResultSet rs) throws SQLException;
+   }//end RowHandler
+
+   /**
+    * Turns the current row of a ResultSet into a value
+    */
+   public interface RowMapper<T> {
+      T map (ResultSet rs) throws SQLException;
+   }//end RowMapper
+
+   /**
+    * An order createOrder wrote, with the total the database charged
+    */
+   public static class PlacedOrder {
+      public final int orderid;
+      public final double total;
+
+      PlacedOrder (int orderid, double total) {
+         this.orderid = orderid;
+         this.total = total;
+      }//end PlacedOrder
+   }//end PlacedOrder
 
    /**
     * Creates a new instance of Cafe
@@ -61,9 +162,39 @@ public class Cafe {
          String url = "jdbc:postgresql://127.0.0.1:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url);
+         // prepare on the server from the first execution, use binary
+         // transfer, and send strings untyped so the server types them
+         // from the column they are compared with (an order id read as
+         // text binds to the integer column, and indexes stay usable)
+         url += "?prepareThreshold=1&binaryTransfer=true&stringtype=unspecified";
+
+         // let the driver send a JDBC batch of inserts as multi-row inserts
+         url += "&reWriteBatchedInserts=true";
+
+         // a statement prepared before a schema change (MigrationRunner)
+         // fails once with "cached plan must not change result type",
+         // let the driver prepare it again and retry instead
+         url += "&autosave=conservative";
+
+         // open the pool, at least one physical connection is made here
+         this._pool = new ConnectionPool(url, Math.max(1, POOL_MIN_SIZE), POOL_MAX_SIZE,
+                                         POOL_MAX_WAIT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS,
+                                         POOL_VALIDATE_AFTER_MILLIS, STATEMENT_CACHE_SIZE);
          System.out.println("Done");
+         this._metrics.register ();
+         this._slowLog = SlowQueryLog.create (this._pool);
+
+         // read the menu once, later reads are served from memory
+         try {
+            reloadMenu ();
+         } catch (SQLException e) {
+            System.err.println ("Warning - Unable to load the menu: " + e.getMessage ());
+         }//end try
+         try {
+            seedOpenOrders ();
+         } catch (SQLException e) {
+            System.err.println ("Warning - Unable to load the open orders: " + e.getMessage ());
+         }//end try
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -71,6 +202,102 @@ public class Cafe {
       }//end catch
    }//end Cafe
 
+   /**
+    * @return the connection pool used by this instance
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return the statement metrics of this instance
+    */
+   public QueryMetrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * @return the order status feed, started on first use
+    */
+   public synchronized OrderFeed getOrderFeed () {
+      if (this._feed == null)
+         this._feed = new OrderFeed (this._pool);
+      return this._feed;
+   }//end getOrderFeed
+
+   /**
+    * @return the slow query log, or null when it is turned off
+    */
+   public SlowQueryLog getSlowLog () {
+      return this._slowLog;
+   }//end getSlowLog
+
+   /**
+    * Method to open a transaction, the statements this thread runs until
+    * it ends all go to the same connection and are committed together.
+    *
+    * @return the unit of work, to commit and close
+    * @throws java.sql.SQLException when no connection could be borrowed
+    */
+   public UnitOfWork begin () throws SQLException {
+      return begin (false);
+   }//end begin
+
+   /**
+    * Method to open a transaction that may commit without waiting for its
+    * WAL flush, for writes that can be lost in a crash, like item status
+    * and comments.  Never use it for payments.
+    *
+    * @param relaxed commit with synchronous_commit off
+    * @return the unit of work, to commit and close
+    * @throws java.sql.SQLException when no connection could be borrowed
+    */
+   public UnitOfWork begin (boolean relaxed) throws SQLException {
+      return new UnitOfWork (this._pool, relaxed);
+   }//end begin
+
+   /**
+    * Borrows a connection from the pool, runs the work on it and hands it
+    * back.  Connections that failed with a connection error are discarded.
+    * Inside a unit of work the work runs on its connection instead.
+    * Every call is counted by the query metrics and the slow query log,
+    * timed from when it has its connection, the wait for the pool is not
+    * the statement's.  The parameters are not handed to the slow query
+    * log, they may be passwords.
+    *
+    * @param sql the statement the work runs, for the slow query log
+    * @param work the work to run
+    */
+   private <T> T withConnection (String sql, ConnectionWork<T> work) throws SQLException {
+      UnitOfWork unit = UnitOfWork.current ();
+      ConnectionPool.PooledConnection pc = unit != null ? unit.pc : this._pool.borrow ();
+      long start = this._metrics.start ();
+      boolean failed = true;
+      boolean broken = false;
+      try {
+         T result = work.run (pc);
+         failed = false;
+         return result;
+      } catch (SQLException e) {
+         // SQLState class 08 is a connection exception
+         if (unit != null)
+            unit.failed (e);
+         else
+            broken = e.getSQLState () != null && e.getSQLState ().startsWith ("08");
+         throw e;
+      } finally {
+         long nanos = this._metrics.end (start, failed);
+         if (this._slowLog != null)
+            this._slowLog.record (sql, nanos);
+         if (unit == null) {
+            if (broken)
+               this._pool.discard (pc);
+            else
+               this._pool.release (pc);
+         }//end if
+      }//end try
+   }//end withConnection
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -79,14 +306,35 @@ public class Cafe {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      withConnection (sql, pc -> {
+         // creates a statement object
+         Statement stmt = pc.connection.createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         QueryMetrics.rows (stmt.executeUpdate (sql));
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+         return null;
+      });
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is prepared once per connection and reused from the statement cache.
+    *
+    * @param sql the input SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      // issues the update instruction, the statement stays cached
+      return withConnection (sql, pc -> {
+         int rowCount = prepare (pc, sql, params).executeUpdate ();
+         QueryMetrics.rows (rowCount);
+         return rowCount;
+      });
    }//end executeUpdate
    
 /**
@@ -99,38 +347,61 @@ public class Cafe {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      return withConnection (query, pc -> {
+         // creates a statement object
+         Statement stmt = pc.connection.createStatement ();
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         int rowCount = printResult (rs);
+         stmt.close ();
+         return rowCount;
+      });
+   }//end executeQuery
 
+   /**
+    * Method to execute a parameterized query SQL instruction and output the
+    * results to standard out.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return withConnection (query, pc -> {
+         ResultSet rs = prepare (pc, query, params).executeQuery ();
+         try {
+            return printResult (rs);
+         } finally {
+            rs.close ();
+         }//end try
+      });
+   }//end executeQuery
+
+   private int printResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+      String[] columns = new String[numCol];
+      for (int i = 1; i <= numCol; ++i)
+         columns[i - 1] = rsmd.getColumnName (i);
 
       // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
+      TableRenderer renderer = TableRenderer.create ();
+      renderer.start (columns);
       while (rs.next()){
-         if(outputHeader){
-            for(int i = 1; i <= numCol; i++){
-                System.out.print(String.format("%-20.21s", rsmd.getColumnName(i)) + "\t");
-            }
-            System.out.println();
-            outputHeader = false;
-         }
          for (int i=1; i<=numCol; ++i)
-            System.out.print (String.format("%-20.21s", rs.getString(i)) + "\t");
-         System.out.println ();
-         ++rowCount;
+            renderer.cell (rs.getString (i));
+         renderer.endRow ();
       }//end while
-      stmt.close ();
+      int rowCount = renderer.finish ();
+      QueryMetrics.rows (rowCount);
       return rowCount;
-   }//end executeQuery
+   }//end printResult
    
  /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -142,22 +413,47 @@ public class Cafe {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryGetResult (String query) throws SQLException { 
-      // creates a statement object 
-      Statement stmt = this._connection.createStatement (); 
- 
-      // issues the query instruction 
-      ResultSet rs = stmt.executeQuery (query); 
+      return withConnection (query, pc -> {
+         // creates a statement object 
+         Statement stmt = pc.connection.createStatement (); 
  
+         // issues the query instruction 
+         ResultSet rs = stmt.executeQuery (query); 
+         List<List<String>> result = collectResult (rs);
+         stmt.close (); 
+         return result; 
+      });
+   }//end executeQueryGetResult
+
+   /**
+    * Method to execute a parameterized query SQL instruction and return the
+    * results as a list of records.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryGetResult (String query, Object... params) throws SQLException {
+      return withConnection (query, pc -> {
+         ResultSet rs = prepare (pc, query, params).executeQuery ();
+         try {
+            return collectResult (rs);
+         } finally {
+            rs.close ();
+         }//end try
+      });
+   }//end executeQueryGetResult
+
+   private List<List<String>> collectResult (ResultSet rs) throws SQLException {
       /* 
        ** obtains the metadata object for the returned result set.  The metadata 
        ** contains row and column info. 
        */ 
       ResultSetMetaData rsmd = rs.getMetaData (); 
       int numCol = rsmd.getColumnCount (); 
-      int rowCount = 0; 
  
       // iterates through the result set and saves the data returned by the query. 
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>(); 
       while (rs.next()){
           List<String> record = new ArrayList<String>(); 
@@ -165,9 +461,9 @@ public class Cafe {
             record.add(rs.getString (i)); 
          result.add(record); 
       }//end while 
-      stmt.close (); 
-      return result; 
-   }//end executeQueryGetResult
+      QueryMetrics.rows (result.size ());
+      return result;
+   }//end collectResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -178,51 +474,550 @@ public class Cafe {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryCount (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+      return withConnection (query, pc -> {
+          // creates a statement object
+          Statement stmt = pc.connection.createStatement ();
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
 
-       int rowCount = 0;
+          int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+          // iterates through the result set and count nuber of results.
+          if(rs.next()){
+             rowCount++;
+          }//end while
+          QueryMetrics.rows (rowCount);
+          stmt.close ();
+          return rowCount;
+      });
    }//end executeQueryCount
 
+   /**
+    * Method to execute a parameterized query SQL instruction and return
+    * whether it produced a row (0 or 1), like executeQueryCount(String).
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryCount (String query, Object... params) throws SQLException {
+      return withConnection (query, pc -> {
+         ResultSet rs = prepare (pc, query, params).executeQuery ();
+         try {
+            int rowCount = rs.next () ? 1 : 0;
+            QueryMetrics.rows (rowCount);
+            return rowCount;
+         } finally {
+            rs.close ();
+         }//end try
+      });
+   }//end executeQueryCount
+
+   /**
+    * Method to stream the rows of a parameterized query to a callback.
+    * Columns are read with the typed ResultSet getters by the handler, and
+    * with a positive fetch size the rows are pulled from a server-side
+    * cursor in chunks of that size, so a large scan uses constant memory.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param fetchSize rows fetched per round trip, 0 reads the whole result at once
+    * @param handler called once per row, positioned on that row
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows handled
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int query (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      return withConnection (query, pc -> {
+         // the driver only uses a cursor inside a transaction
+         boolean cursor = fetchSize > 0 && pc.connection.getAutoCommit ();
+         if (cursor)
+            pc.connection.setAutoCommit (false);
+         PreparedStatement stmt = prepare (pc, query, params);
+         stmt.setFetchSize (fetchSize);
+         try {
+            ResultSet rs = stmt.executeQuery ();
+            int rowCount = 0;
+            try {
+               while (rs.next ()) {
+                  handler.row (rs);
+                  ++rowCount;
+               }//end while
+            } finally {
+               rs.close ();
+            }//end try
+            QueryMetrics.rows (rowCount);
+            return rowCount;
+         } finally {
+            // the statement stays cached, reset it for the next caller
+            stmt.setFetchSize (0);
+            if (cursor)
+               pc.connection.setAutoCommit (true);
+         }//end try
+      });
+   }//end query
+
+   /**
+    * Method to execute a parameterized query and map its first row.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param mapper reads the value out of the row
+    * @param params the values bound to the placeholders, in order
+    * @return the mapped first row, or null if the query returned no rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T queryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      return withConnection (query, pc -> first (pc, query, mapper, params));
+   }//end queryForObject
+
+   private static <T> T first (ConnectionPool.PooledConnection pc, String query, RowMapper<T> mapper, Object[] params) throws SQLException {
+      ResultSet rs = prepare (pc, query, params).executeQuery ();
+      try {
+         if (!rs.next ())
+            return null;
+         QueryMetrics.rows (1);
+         return mapper.map (rs);
+      } finally {
+         rs.close ();
+      }//end try
+   }//end first
+
+   /**
+    * Looks up the cached PreparedStatement for the given SQL on the borrowed
+    * connection and binds the parameters to it.
+    *
+    * @param pc the borrowed connection
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the statement ready to execute
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   private static PreparedStatement prepare (ConnectionPool.PooledConnection pc, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = pc.statements.get (sql);
+      for (int i = 0; i < params.length; ++i)
+         stmt.setObject (i + 1, params[i]);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Method to check a login and password and read the user's type with a
+    * single query.  With the credential cache enabled, a user who logged in
+    * recently is checked in memory without touching the database.
+    *
+    * @param login the user login
+    * @param password the password that was entered
+    * @return the user and type, or null if the login or password is wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserProfile authenticate (String login, String password) throws SQLException {
+      if (this._credentials != null) {
+         String type = this._credentials.verify (login, password);
+         if (type != null)
+            return new UserProfile (login, type);
+      }//end if
+      UserProfile user = queryForObject ("SELECT u.type FROM Users u WHERE u.login = ? AND u.password = ?",
+                                         rs -> new UserProfile (login, rs.getString (1)), login, password);
+      if (user != null && this._credentials != null)
+         this._credentials.put (login, password, user.type);
+      return user;
+   }//end authenticate
+
+   /**
+    * Drops a user from the credential cache, called whenever the user's
+    * password or type changes.
+    *
+    * @param login the user login
+    */
+   public void invalidateUser (String login) {
+      if (this._credentials != null)
+         this._credentials.invalidate (login);
+   }//end invalidateUser
+
+   /**
+    * Returns the cached menu.  At most once every cafe.menu.checkMillis the
+    * MenuVersion in the database is compared with the cached version and
+    * the menu is read again when it changed; every other call costs no
+    * database round trip.
+    *
+    * @return the current menu snapshot
+    */
+   public MenuSnapshot getMenu () {
+      long now = System.nanoTime ();
+      long checkAt = this._menuCheckAt.get ();
+      if (now - checkAt >= 0
+          && this._menuCheckAt.compareAndSet (checkAt, now + MENU_CHECK_MILLIS * 1000000L)) {
+         try {
+            String query = "SELECT version FROM MenuVersion";
+            long version = withConnection (query, pc -> {
+               ResultSet rs = prepare (pc, query, NO_PARAMS).executeQuery ();
+               try {
+                  return rs.next () ? rs.getLong (1) : -1L;
+               } finally {
+                  rs.close ();
+               }//end try
+            });
+            if (version != this._menu.get ().version ())
+               reloadMenu ();
+         } catch (SQLException e) {
+            // keep serving the cached menu
+            System.err.println (e.getMessage ());
+         }//end try
+      }//end if
+      return this._menu.get ();
+   }//end getMenu
+
+   /**
+    * Method to read the whole Menu table and swap it in as the cached menu.
+    * Called at startup and after every change made through UpdateMenu.
+    *
+    * @return the new menu snapshot
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public MenuSnapshot reloadMenu () throws SQLException {
+      // version and rows are read by one statement so they match
+      String query = "SELECT V.version, M.itemName, M.type, M.price, M.description, M.imageURL " +
+                     "FROM MenuVersion V LEFT JOIN Menu M ON true";
+      MenuSnapshot snapshot = withConnection (query, pc -> {
+         ResultSet rs = prepare (pc, query, NO_PARAMS).executeQuery ();
+         long version = -1;
+         List<MenuItem> items = new ArrayList<MenuItem>();
+         try {
+            while (rs.next ()) {
+               version = rs.getLong (1);
+               if (rs.getString (2) != null)
+                  items.add (new MenuItem (rs.getString (2), rs.getString (3), rs.getString (4),
+                                           rs.getString (5), rs.getString (6)));
+            }//end while
+         } finally {
+            rs.close ();
+         }//end try
+         QueryMetrics.rows (items.size ());
+         return new MenuSnapshot (version, items);
+      });
+      // never replace a newer snapshot loaded concurrently by an older one
+      this._menuCheckAt.set (System.nanoTime () + MENU_CHECK_MILLIS * 1000000L);
+      return this._menu.accumulateAndGet (snapshot, (current, loaded) ->
+                                          loaded.version () >= current.version () ? loaded : current);
+   }//end reloadMenu
+
+   /**
+    * Returns the unpaid orders of the last 24 hours kept in memory, read
+    * again from the database every cafe.openOrders.refreshMillis.
+    *
+    * @return the open orders
+    */
+   public OpenOrders getOpenOrders () {
+      long now = System.nanoTime ();
+      long seedAt = this._openOrdersSeedAt.get ();
+      if (now - seedAt >= 0
+          && this._openOrdersSeedAt.compareAndSet (seedAt, now + OPEN_ORDERS_REFRESH_MILLIS * 1000000L)) {
+         try {
+            seedOpenOrders ();
+         } catch (SQLException e) {
+            // keep serving the orders held
+            System.err.println (e.getMessage ());
+         }//end try
+      }//end if
+      return this._openOrders;
+   }//end getOpenOrders
+
+   /**
+    * Method to read the unpaid orders of the last 24 hours, through the
+    * partial index on unpaid orders, and replace the open orders with them.
+    *
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void seedOpenOrders () throws SQLException {
+      String query = "SELECT orderid, login, timeStampRecieved, total FROM Orders " +
+                     "WHERE paid = 'f' AND timeStampRecieved >= NOW() - INTERVAL '1 day'";
+      List<OpenOrders.Order> orders = new ArrayList<OpenOrders.Order>();
+      query (query, 1000, rs -> orders.add (new OpenOrders.Order (rs.getInt (1), rs.getString (2),
+                                                                    rs.getTimestamp (3), rs.getDouble (4))));
+      this._openOrdersSeedAt.set (System.nanoTime () + OPEN_ORDERS_REFRESH_MILLIS * 1000000L);
+      this._openOrders.seed (orders);
+   }//end seedOpenOrders
+
+   /**
+    * Method to read the version of an order, to pass to updatePaid.
+    *
+    * @param orderid the order id
+    * @return the current version of the order, or null if there is no such order
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer orderVersion (Object orderid) throws SQLException {
+      return queryForObject ("SELECT version FROM Orders WHERE orderid=?", rs -> rs.getInt (1), orderid);
+   }//end orderVersion
+
+   /**
+    * Method to mark an order paid or unpaid, the open orders follow.  The
+    * order is only written if it still has the version it was shown with.
+    * A payment is never retried on a newer version, the total may have
+    * changed since the employee looked at it.
+    *
+    * @param orderid the order id
+    * @param paid "t" or "f"
+    * @param version the version of the order when it was shown
+    * @return whether the order exists
+    * @throws java.sql.SQLException when failed to execute the update, with SQLState 40001 when the order changed since it was shown
+    */
+   public boolean updatePaid (Object orderid, String paid, int version) throws SQLException {
+      String query = "UPDATE Orders SET paid=? WHERE orderid=? AND version=? RETURNING orderid, login, paid, timeStampRecieved, total";
+      OpenOrders.Order[] order = new OpenOrders.Order[1];
+      Boolean isPaid = queryForObject (query, rs -> {
+         order[0] = new OpenOrders.Order (rs.getInt (1), rs.getString (2), rs.getTimestamp (4), rs.getDouble (5));
+         return rs.getBoolean (3);
+      }, paid, orderid, version);
+      if (isPaid == null) {
+         if (orderVersion (orderid) == null)
+            return false;
+         throw new SQLException ("Order " + orderid + " changed since it was shown, it was not updated", "40001");
+      }//end if
+      if (order[0].login != null)
+         this._recentOrders.invalidate (order[0].login);
+      if (isPaid)
+         this._openOrders.remove (order[0].orderid);
+      else
+         this._openOrders.add (order[0]);
+      return true;
+   }//end updatePaid
+
+   private static final RowMapper<OrderItem> ORDER_ITEM =
+      rs -> new OrderItem (rs.getInt (1), rs.getString (2), rs.getString (3), rs.getString (4), rs.getInt (5));
+
+   /**
+    * Method to read an item of an order, to pass to updateItemStatus or
+    * updateItemComments.
+    *
+    * @param orderid the order id
+    * @param itemName the menu item name
+    * @return the item, or null if the order has no such item
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public OrderItem readItem (Object orderid, String itemName) throws SQLException {
+      return queryForObject ("SELECT orderid, itemName, status, comments, version FROM ItemStatus WHERE orderid=? AND itemName=?",
+                             ORDER_ITEM, orderid, itemName);
+   }//end readItem
+
+   /**
+    * Method to change the status of an order item, unless someone else
+    * changed it since it was read.
+    *
+    * @param seen the item as read by readItem
+    * @param status the new status
+    * @return the item as written
+    * @throws java.sql.SQLException when failed to execute the update, with SQLState 40001 on a conflict
+    */
+   public OrderItem updateItemStatus (OrderItem seen, String status) throws SQLException {
+      return compareAndSet (seen, "status", item -> item.status, status);
+   }//end updateItemStatus
+
+   /**
+    * Method to change the comment of an order item, unless someone else
+    * changed it since it was read.
+    *
+    * @param seen the item as read by readItem
+    * @param comments the new comment
+    * @return the item as written
+    * @throws java.sql.SQLException when failed to execute the update, with SQLState 40001 on a conflict
+    */
+   public OrderItem updateItemComments (OrderItem seen, String comments) throws SQLException {
+      return compareAndSet (seen, "comments", item -> item.comments, comments);
+   }//end updateItemComments
+
+   /**
+    * Writes one column of an order item if the row still has the version
+    * it was read with, no lock is held between the read and the write.
+    * When another change got in between, the row is read again: if that
+    * change left this column alone, the write is retried on the new
+    * version, up to cafe.cas.attempts times.  Otherwise the other change
+    * wins and this one fails as a conflict.  Each write is a relaxed unit
+    * of work, it does not wait for the WAL flush.
+    */
+   private OrderItem compareAndSet (OrderItem seen, String column, Function<OrderItem, String> field, String value) throws SQLException {
+      String query = "UPDATE ItemStatus SET " + column + "=? WHERE orderid=? AND itemName=? AND version=? " +
+                     "RETURNING orderid, itemName, status, comments, version";
+      OrderItem expected = seen;
+      for (int attempt = 1; ; ++attempt) {
+         OrderItem written;
+         try (UnitOfWork work = begin (true)) {
+            written = queryForObject (query, ORDER_ITEM, value, expected.orderid, expected.itemName, expected.version);
+            work.commit ();
+         }//end try
+         if (written != null)
+            return written;
+
+         OrderItem current = readItem (seen.orderid, seen.itemName);
+         if (current == null)
+            throw new SQLException (seen.itemName + " was removed from order " + seen.orderid + ", the change was not saved", "40001");
+         // someone else made the same change
+         if (Objects.equals (field.apply (current), MenuItem.trim (value)))
+            return current;
+         if (!Objects.equals (field.apply (current), field.apply (seen)))
+            throw new SQLException ("The " + column + " of " + seen.itemName + " was changed to '" + field.apply (current) +
+                                    "' by someone else, the change was not saved", "40001");
+         if (attempt >= CAS_ATTEMPTS)
+            throw new SQLException (seen.itemName + " keeps changing, the change was not saved, please try again", "40001");
+         expected = current;
+      }//end for
+   }//end compareAndSet
+
+   /**
+    * Method to read the last orders of a user, newest first.  Repeated
+    * reads are served from the RecentOrders cache.
+    *
+    * @param login the user login
+    * @return at most RecentOrders.LENGTH orders
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<RecentOrders.Order> orderHistory (String login) throws SQLException {
+      List<RecentOrders.Order> orders = this._recentOrders.get (login);
+      if (orders != null)
+         return orders;
+      long stamp = this._recentOrders.stamp ();
+      String query = "SELECT orderid, login, paid, timeStampRecieved, total FROM Orders " +
+                     "WHERE login=? ORDER BY timeStampRecieved DESC LIMIT " + RecentOrders.LENGTH;
+      List<RecentOrders.Order> loaded = new ArrayList<RecentOrders.Order>();
+      query (query, 0, rs -> loaded.add (new RecentOrders.Order (rs.getInt (1), rs.getString (2), rs.getBoolean (3),
+                                                                 rs.getTimestamp (4), rs.getDouble (5))), login);
+      this._recentOrders.put (login, loaded, stamp);
+      return loaded;
+   }//end orderHistory
+
+   /**
+    * Forgets the cached history of a user, called whenever one of the
+    * user's orders changes its items
+    *
+    * @param login the user login
+    */
+   public void invalidateHistory (String login) {
+      this._recentOrders.invalidate (login);
+   }//end invalidateHistory
+
+   /**
+    * Method to create an order with one of each item, an item named more
+    * than once is ordered that many times.
+    *
+    * @param login the login placing the order
+    * @param items the menu item names of the order
+    * @return the new order and its total
+    * @throws java.sql.SQLException when the order could not be written, nothing is kept then
+    */
+   public PlacedOrder createOrder (String login, List<String> items) throws SQLException {
+      Map<String, Integer> quantities = new LinkedHashMap<String, Integer>();
+      for (String item : items)
+         quantities.merge (item, 1, Integer::sum);
+      return createOrder (login, quantities);
+   }//end createOrder
+
+   /**
+    * Method to create an order together with all of its items in one
+    * transaction.  The items are sent as one JDBC batch, one row per item
+    * with its quantity and its current menu price, the order total is kept
+    * by the ItemStatus trigger and read back in the same transaction.
+    *
+    * @param login the login placing the order
+    * @param quantities the menu item names of the order and how many of each
+    * @return the new order and its total
+    * @throws java.sql.SQLException when the order could not be written, nothing is kept then
+    */
+   public PlacedOrder createOrder (String login, Map<String, Integer> quantities) throws SQLException {
+      String insertItem = "INSERT INTO itemStatus (orderid, itemName, lastUpdated, status, quantity, unitPrice) " +
+                          "SELECT ?, M.itemName, CURRENT_TIMESTAMP, ?, ?, M.price FROM Menu M WHERE M.itemName = ?";
+      Timestamp[] received = new Timestamp[1];
+      int orderId;
+      double total;
+      try (UnitOfWork work = begin ()) {
+         orderId = queryForObject ("INSERT INTO Orders (login, paid, timestamprecieved, total) VALUES (?, 'f', CURRENT_TIMESTAMP, 0) RETURNING orderid, timestamprecieved",
+                                   rs -> { received[0] = rs.getTimestamp (2); return rs.getInt (1); }, login);
+         withConnection (insertItem, pc -> {
+            PreparedStatement stmt = pc.statements.get (insertItem);
+            try {
+               for (Map.Entry<String, Integer> item : quantities.entrySet ()) {
+                  stmt.setInt (1, orderId);
+                  stmt.setString (2, "Hasnt started");
+                  stmt.setInt (3, item.getValue ());
+                  stmt.setString (4, item.getKey ());
+                  stmt.addBatch ();
+               }//end for
+               int[] inserted = stmt.executeBatch ();
+               for (int i = 0; i < inserted.length; ++i)
+                  if (inserted[i] == 0)
+                     throw new SQLException ("Not on the menu: " + new ArrayList<String> (quantities.keySet ()).get (i), "23503");
+               QueryMetrics.rows (quantities.size ());
+               return inserted.length;
+            } finally {
+               stmt.clearBatch ();
+            }//end try
+         });
+         // the total the trigger summed from the unit prices, not from the cached menu
+         total = queryForObject ("SELECT total FROM Orders WHERE orderid = ?", rs -> rs.getDouble (1), orderId);
+         work.commit ();
+      }//end try
+
+      this._openOrders.add (new OpenOrders.Order (orderId, login, received[0], total));
+      this._recentOrders.push (new RecentOrders.Order (orderId, login, false, received[0], total));
+      return new PlacedOrder (orderId, total);
+   }//end createOrder
+
+   /**
+    * Method to set every order total to the sum of its items, from the
+    * unit prices kept on the items.  Only orders whose total is off are
+    * written.
+    *
+    * @return the number of totals corrected
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public int recomputeTotals () throws SQLException {
+      int corrected = executeUpdate ("UPDATE Orders O SET total = COALESCE(S.total, 0) " +
+                                     "FROM Orders X LEFT JOIN (SELECT orderid, sum(quantity * unitPrice) AS total " +
+                                     "FROM ItemStatus GROUP BY orderid) S ON S.orderid = X.orderid " +
+                                     "WHERE X.orderid = O.orderid AND O.total IS DISTINCT FROM COALESCE(S.total, 0)", NO_PARAMS);
+      if (corrected > 0)
+         seedOpenOrders ();
+      return corrected;
+   }//end recomputeTotals
+
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current 
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval is local to
+    * a database session, so with the connection pool the value is only
+    * meaningful if nextval ran on the same borrowed connection.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-	
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+	String query = String.format("Select currval('%s')", sequence);
+	return withConnection (query, pc -> {
+		Statement stmt = pc.connection.createStatement ();
+		
+		ResultSet rs = stmt.executeQuery (query);
+		int value = -1;
+		if (rs.next())
+			value = rs.getInt(1);
+		stmt.close ();
+		return value;
+	});
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+      synchronized (this){
+         if (this._feed != null){
+            this._feed.close ();
          }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      }//end synchronized
+      if (this._slowLog != null){
+         this._slowLog.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -231,12 +1026,12 @@ public class Cafe {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 2) {
+      if (args.length < 2 || (args.length == 3 && !args[2].equals("bench") && !args[2].equals("migrate") && !args[2].equals("totals")) || args.length > 5) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Cafe.class.getName () +
-            " <dbname> <port>");
+            " <dbname> <port> [serve <listen port> | import <data dir> [replace] | generate <out dir>|copy <orders> | bench [name] | workload <customers> <employees> | migrate | totals]");
          return;
       }//end if
 
@@ -251,6 +1046,60 @@ public class Cafe {
          String dbport = args[1];
          esql = new Cafe (dbname, dbport);
 
+         // run the menus on the console, or serve them to many clients
+         String command = args.length > 2 ? args[2] : "console";
+         switch (command){
+            case "console": runSession(esql); break;
+            case "serve": new CafeServer(esql, Integer.parseInt(args[3])).serve(); break;
+            case "import": new BulkLoader(esql).load(new File(args[3]), args.length > 4 && args[4].equals("replace")); break;
+            case "generate": generate(esql, args[3], Long.parseLong(args[4])); break;
+            case "bench": new CafeBenchmark(esql).run(args.length > 3 ? args[3] : null); break;
+            case "workload": new WorkloadDriver(esql, Integer.parseInt(args[3]), Integer.parseInt(args[4])).run(); break;
+            case "migrate": new MigrationRunner(esql).migrate(); break;
+            case "totals": System.out.println(esql.recomputeTotals() + " order total(s) corrected"); break;
+            default : System.err.println("Unknown command: " + command); break;
+         }//end switch
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+   /**
+    * Generates orders for the users and menu in the database
+    *
+    * @param esql the database access
+    * @param target a directory for the data files, or copy to load them directly
+    * @param orders the number of orders
+    */
+   private static void generate (Cafe esql, String target, long orders) throws Exception {
+      DataGenerator generator = new DataGenerator(esql);
+      if (target.equals("copy"))
+         generator.copy(orders);
+      else
+         generator.writeFiles(new File(target), orders);
+   }//end generate
+
+   /**
+    * Runs the main menu and the menus of the logged in user until the user
+    * exits.  Every session keeps its own login.
+    *
+    * @param esql the database access
+    */
+   public static void runSession (Cafe esql) {
+         //login info for later use
+         UserProfile authorised = null;
+         String authorisedUser = null;
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
@@ -259,16 +1108,17 @@ public class Cafe {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            authorisedUser = null;
+            authorised = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 2: authorised = LogIn(esql); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
+            if (authorised != null) {
               boolean usermenu = true;
-              String user_type = find_type(esql, authorisedUser);
+              authorisedUser = authorised.login;
+              String user_type = authorised.type;
 	      switch (user_type){
 		case "Customer": 
 		  while(usermenu) {
@@ -281,6 +1131,8 @@ public class Cafe {
                     System.out.println("5. View Order History");
                     System.out.println("6. View Order Status");
                     System.out.println("7. Update User Info");
+                    System.out.println("8. Search Menu");
+                    System.out.println("10. Watch Order");
                     System.out.println(".........................");
                     System.out.println("9. Log out");
                       switch (readChoice()){
@@ -291,6 +1143,8 @@ public class Cafe {
                        case 5: ViewOrderHistory(esql, authorisedUser); break;
                        case 6: ViewOrderStatus(esql); break;
                        case 7: UpdateUserInfo(esql, authorisedUser); break;
+                       case 8: SearchMenu(esql); break;
+                       case 10: WatchOrder(esql, false); break;
                        case 9: usermenu = false; break;
                        default : System.out.println("Unrecognized choice!"); break;
 		      }//end switch
@@ -306,6 +1160,8 @@ public class Cafe {
                     System.out.println("5. View Current Orders");
                     System.out.println("6. View Order Status");
                     System.out.println("7. Update User Info");
+                    System.out.println("8. Search Menu");
+                    System.out.println("10. Watch Orders");
                     System.out.println(".........................");
                     System.out.println("9. Log out");
                       switch (readChoice()){
@@ -316,11 +1172,13 @@ public class Cafe {
                        case 5: ViewCurrentOrder(esql, authorisedUser); break;
                        case 6: ViewOrderStatus(esql); break;
                        case 7: UpdateUserInfo(esql, authorisedUser); break;
+                       case 8: SearchMenu(esql); break;
+                       case 10: WatchOrder(esql, true); break;
                        case 9: usermenu = false; break;
                        default : System.out.println("Unrecognized choice!"); break;
 		      }//end switch
 		  } break;
-		case "Manager ": 
+		case "Manager": 
 		  while(usermenu) {
                     System.out.println("MAIN MENU");
                     System.out.println("---------");
@@ -332,6 +1190,9 @@ public class Cafe {
                     System.out.println("6. View Order Status");
                     System.out.println("7. Update User Info");
                     System.out.println("8. Update Menu");
+                    System.out.println("10. Search Menu");
+                    System.out.println("11. View Query Metrics");
+                    System.out.println("12. Watch Orders");
                     System.out.println(".........................");
                     System.out.println("9. Log out");
                       switch (readChoice()){
@@ -343,6 +1204,9 @@ public class Cafe {
                        case 6: ViewOrderStatus(esql); break;
                        case 7: ManagerUpdateUserInfo(esql); break;
                        case 8: UpdateMenu(esql); break;
+                       case 10: SearchMenu(esql); break;
+                       case 11: ViewQueryMetrics(esql); break;
+                       case 12: WatchOrder(esql, true); break;
                        case 9: usermenu = false; break;
                        default : System.out.println("Unrecognized choice!"); break;
 		      }//end switch
@@ -350,21 +1214,8 @@ public class Cafe {
 	      }//end switch
             }//end if
          }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
-         }//end try
-      }//end try
-   }//end main
+         QueryMetrics.endOperation();
+   }//end runSession
 
    public static void Greeting(){
       System.out.println(
@@ -378,12 +1229,20 @@ public class Cafe {
     * @int
     **/
    public static int readChoice() {
+      // a menu choice ends the user operation before it
+      QueryMetrics.nextOperation();
       int input;
       // returns only if a correct value is given.
       do {
          System.out.print("Please make your choice: ");
          try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+            String line = in.readLine();
+            if (line == null) {
+               // end of input, log out and exit
+               input = 9;
+               break;
+            }//end if
+            input = Integer.parseInt(line);
             break;
          }catch (Exception e) {
             System.out.println("Your input is invalid!");
@@ -400,6 +1259,12 @@ public class Cafe {
       try{
          System.out.print("\tEnter user login: ");
          String login = in.readLine();
+         //the caches trim logins like a char(50) column did, 'bob ' would pass for 'bob'
+         if(login.isEmpty() || !login.equals(login.strip()))
+         {
+            System.out.println("\tThe login cannot be empty or start or end with blanks");
+            return;
+         }
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
          System.out.print("\tEnter user phone: ");
@@ -408,9 +1273,9 @@ public class Cafe {
 				 String type="Customer";
 				 String favItems="";
 
-				 String query = String.format("INSERT INTO USERS (phoneNum, login, password, favItems, type) VALUES ('%s','%s','%s','%s','%s')", phone, login, password, favItems, type);
+				 String query = "INSERT INTO USERS (phoneNum, login, password, favItems, type) VALUES (?, ?, ?, ?, ?)";
 
-         esql.executeUpdate(query);
+         esql.executeUpdate(query, phone, login, password, favItems, type);
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -421,19 +1286,19 @@ public class Cafe {
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
     **/
-   public static String LogIn(Cafe esql){
+   public static UserProfile LogIn(Cafe esql){
       try{
          System.out.print("\tEnter user login: ");
          String login = in.readLine();
          System.out.print("\tEnter user password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM Users WHERE login = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQueryCount(query);
-				 if (userNum > 0)
+         //checks the password and reads the user type in one step
+         UserProfile user = esql.authenticate(login, password);
+				 if (user != null)
 				 {
 				 	System.out.println("\tLogged in successfully!");
-					return login;
+					return user;
 				 }
 				 else
 				 {
@@ -446,33 +1311,20 @@ public class Cafe {
       }
    }//end LogIn
 
-   public static String find_type(Cafe esql, String login){	
-		 	String type = null;
-		 	try{  
-         //read the username and find out the type of it and return that type
-				String query = String.format("SELECT u.type FROM Users u WHERE u.login='%s'", login);
-				type = String.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-      }catch(Exception e){
-         System.err.println (e.getMessage());
-      }
-      
-		 	return type;
-		 	//return "Employee";
-   }//end find_type
-
    public static void BrowseMenuName(Cafe esql){
       // ask to enter itemName
       // find the info for that item
       // display and exit
       try{  
-        String query = "SELECT M.itemname, M.type, M.price, M.description FROM Menu M WHERE M.itemName =";
         System.out.print("\tEnter item name: ");
         String input = in.readLine();
-        query += "\'"; 
-        query += input;
-        query += "\'"; 
 
-        int rowCount = esql.executeQuery(query);
+        //served from the cached menu
+        List<MenuItem> items = new ArrayList<MenuItem>();
+        MenuItem item = esql.getMenu().get(input);
+        if (item != null)
+           items.add(item);
+        int rowCount = printMenuItems(items);
         System.out.println ("\ttotal row(s): " + rowCount);
       }catch(Exception e){
          System.err.println (e.getMessage());
@@ -481,34 +1333,70 @@ public class Cafe {
 
    public static void BrowseMenuType(Cafe esql){
       try{  
-        String query = "SELECT M.itemname, M.type, M.price, M.description FROM Menu M WHERE M.type = ";
         System.out.print("\tEnter item type: ");
         String input = in.readLine();
-        query += "\'"; 
-        query += input;
-        query += "\'"; 
 
-        int rowCount = esql.executeQuery(query);
+        //served from the cached menu
+        int rowCount = printMenuItems(esql.getMenu().byType(input));
         System.out.println ("\ttotal row(s): " + rowCount);
       }catch(Exception e){
          System.err.println (e.getMessage());
       }
    }//end BrowseMenuType
 
+   public static void SearchMenu(Cafe esql){
+      // ask for part of a name, a type or a word of the description
+      // list the ranked matches from the cached menu
+      try{
+        System.out.print("\tEnter search text: ");
+        String input = in.readLine();
+
+        List<MenuItem> items = new ArrayList<MenuItem>();
+        for (MenuIndex.Match match : esql.getMenu().search(input))
+           items.add(match.item);
+        int rowCount = printMenuItems(items);
+        System.out.println ("\ttotal row(s): " + rowCount);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end SearchMenu
+
+   /*
+    * Prints the statement counts and latencies collected since startup
+    **/
+   public static void ViewQueryMetrics(Cafe esql){
+      System.out.print(esql.getMetrics().getSnapshot());
+      if (esql.getSlowLog() != null){
+         System.out.println();
+         System.out.print(esql.getSlowLog().summary());
+      }//end if
+   }//end ViewQueryMetrics
+
+   /*
+    * Prints menu items the way executeQuery prints the itemname, type,
+    * price and description columns
+    * @return the number of items printed
+    **/
+   public static int printMenuItems(List<MenuItem> items){
+      TableRenderer renderer = TableRenderer.create();
+      renderer.start(new String[] { "itemname", "type", "price", "description" });
+      for (MenuItem item : items){
+         renderer.cell(item.itemName);
+         renderer.cell(item.type);
+         renderer.cell(item.priceText);
+         renderer.cell(item.description);
+         renderer.endRow();
+      }//end for
+      return renderer.finish();
+   }//end printMenuItems
+
    public static Integer AddOrder(Cafe esql, String login){
 			Integer order_id = 0;
    		try
    		{
-		 		//create new order to get id
-		 		String query = String.format("INSERT INTO Orders (login, paid, timestamprecieved, total) VALUES ('%s', 'f', CURRENT_TIMESTAMP, -1)", login);
-		 		esql.executeUpdate(query);
-		 		
-		 		query = "SELECT o.orderid FROM Orders o WHERE o.total = '-1'";
-		 		order_id = Integer.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		 		query = String.format("UPDATE Orders o SET total= '0' WHERE o.orderid = '%s'", order_id);
-		 		esql.executeUpdate(query);
-		 		
-		 		addItemStatus(esql, order_id);
+		 		//collect the whole cart first, nothing is written yet
+		 		Map<String, Integer> cart = new LinkedHashMap<String, Integer>();
+		 		addToCart(cart);
 		 		
 		 		boolean more = true;
 		 		
@@ -520,32 +1408,53 @@ public class Cafe {
 			 		if((input.equals("n")) || (input.equals("N")))
 			 		{
 			 			more = false;
-			 			System.out.println("\tYour order:");
-			 			query =  String.format("SELECT i.itemname FROM itemStatus i WHERE i.orderid = '%s'", order_id);
-		 				int rowCount = esql.executeQuery(query);
-         					System.out.println ("\tTotal Items: " + rowCount);
-         		
-				 		//print order total
-				 		query =  String.format("SELECT o.total FROM Orders O WHERE O.orderid = '%s'", order_id);
-		 				Double total = Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		 				//DecimalFormat df = new DecimalFormat("$###,###.##");
-		 				//df.format(total);
-		 				System.out.println("\tOrder total: $" + total);
-		 				System.out.println("\tOrder id is: " + order_id);
-         		System.out.println("\tThank you for your order!");
-         					
 			 		}
 			 		else if ((input.equals("y")) || (input.equals("Y")))
 			 		{
-			 			addItemStatus(esql, order_id);
+			 			addToCart(cart);
 			 		}
 			 		else
 			 		{
 			 			System.out.println("\tUnrecognized choice");
-			 			System.out.print("\tIs there any other order to make? (Y/N) ");
 			 		}
 				}		
 		 		
+		 		//check every item against the cached menu
+		 		MenuSnapshot menu = esql.getMenu();
+		 		Map<String, Integer> items = new LinkedHashMap<String, Integer>();
+		 		int count = 0;
+		 		for(Map.Entry<String, Integer> item : cart.entrySet())
+		 		{
+		 			MenuItem menuItem = menu.get(item.getKey());
+		 			if(menuItem == null)
+		 			{
+		 				System.out.println("\tInvalid name: " + item.getKey());
+		 			}
+		 			else
+		 			{
+		 				items.merge(menuItem.itemName, item.getValue(), Integer::sum);
+		 				count += item.getValue();
+		 			}
+		 		}
+		 		if(items.isEmpty())
+		 		{
+		 			System.out.println("\tNo valid items, the order was not placed");
+		 			return order_id;
+		 		}
+		 		
+		 		//write the order and all of its items in one transaction
+		 		//the total is the one the database charged, the cached menu may be behind
+		 		PlacedOrder placed = esql.createOrder(login, items);
+		 		order_id = placed.orderid;
+		 		
+		 		System.out.println("\tYour order:");
+		 		for(Map.Entry<String, Integer> item : items.entrySet())
+		 			System.out.println("\t\t" + item.getValue() + " x " + item.getKey());
+		 		System.out.println ("\tTotal Items: " + count);
+		 		System.out.println("\tOrder total: $" + String.format("%.2f", placed.total));
+		 		System.out.println("\tOrder id is: " + order_id);
+		 		System.out.println("\tThank you for your order!");
+		 		
 		 	}catch(Exception e)
 		 	{
 		 		System.err.println(e.getMessage());
@@ -555,6 +1464,20 @@ public class Cafe {
       
    }//end AddOrder
 
+   /*
+    * Reads one item name into the cart of AddOrder, naming an item again
+    * orders one more of it
+    **/
+   private static void addToCart(Map<String, Integer> cart) throws IOException {
+   		System.out.print("\tPlease enter the item name: ");
+   		String item = in.readLine();
+   		int quantity = cart.merge(item, 1, Integer::sum);
+   		if(quantity > 1)
+   		{
+   			System.out.println("\tThat makes " + quantity + " of this item");
+   		}
+   }//end addToCart
+
    public static void UpdateOrder(Cafe esql, String login){
    	try
    	{
@@ -563,22 +1486,18 @@ public class Cafe {
    		String input = in.readLine();
   		Integer order_id = Integer.valueOf(input);		 		
   		 
-  		//check if the order id exist in the user's history
-  		String query = String.format("SELECT login FROM Orders WHERE orderid=%s", order_id);
-  		String exist = esql.executeQueryGetResult(query).get(0).get(0);
+  		//check if the order id exist in the user's history and if it is paid
+  		String query = "SELECT o.paid FROM Orders o WHERE o.orderid = ? AND o.login = ?";
+  		Boolean paid = esql.queryForObject(query, rs -> rs.getBoolean(1), order_id, login);
 
-  		if(!login.equals(exist.replace(" ", "")))
+  		if(paid == null)
   		{
   			System.out.println("\tSorry, that order id does not belong to you ");
   		}
   		else
   		{
-   			// check if paid
-  			query =  String.format("SELECT o.paid FROM Orders o WHERE o.orderid = '%s'", order_id);
-  			String paid = esql.executeQueryGetResult(query).get(0).get(0);
-
         // if paid, cannot update	
-  			if(paid.equals("t"))
+  			if(paid)
   	 		{
   		 		System.out.println("\tSorry, the order has been processed");
   	 		}
@@ -592,8 +1511,8 @@ public class Cafe {
   		 		do
   		 		{
   					System.out.println("Your order:");
-  		 			query =  String.format("SELECT i.itemname, i.status, i.comments FROM itemStatus i WHERE i.orderid = '%s'", order_id);
-  			 		int rowCount = esql.executeQuery(query);
+  		 			query = "SELECT i.itemname, i.status, i.comments FROM itemStatus i WHERE i.orderid = ?";
+  			 		int rowCount = esql.executeQuery(query, order_id);
   	
   					System.out.println("\tWhat changes would you like to make?");
   					System.out.println("\t\t1. Add another item");
@@ -604,25 +1523,34 @@ public class Cafe {
   				 	if(input.equals("1"))
   				 	{
   			 			addItemStatus(esql, order_id);
+  			 			esql.invalidateHistory(login);
   				 	}	
   				 	else if(input.equals("2"))
   				 	{
   				 		deleteItem(esql, order_id);
+  				 		esql.invalidateHistory(login);
   			 		}
   					else if(input.equals("3"))
   					{
   						System.out.print("\tPlease enter the item name: ");
   						String itemname = in.readLine();
   					
-  						query = String.format("SELECT * FROM itemStatus WHERE itemname='%s' AND orderid=%s", itemname, order_id);
-  						int userNum = esql.executeQueryCount(query);
-  						if(userNum > 0)
+  						OrderItem item = esql.readItem(order_id, itemname);
+  						if(item != null)
   						{
   							System.out.print("\tPlease enter the comment: ");
   							String comment = in.readLine();
   	
-  							query = String.format("UPDATE itemStatus SET comments='%s' WHERE itemname='%s' AND orderid=%s", comment, itemname, order_id);
-  							esql.executeUpdate(query);
+  							//only saved if nobody changed the comment meanwhile
+  							try
+  							{
+  								esql.updateItemComments(item, comment);
+  							}catch(SQLException e)
+  							{
+  								if(!"40001".equals(e.getSQLState()))
+  									throw e;
+  								System.err.println("\t" + CONFLICT + e.getMessage());
+  							}
   					}
   						else
   						{
@@ -652,13 +1580,13 @@ public class Cafe {
       	System.out.print("\tPlease enter the order ID: ");
       	String order_id = in.readLine();
       	
-      	//check if the order exists
-      	String query =  String.format("SELECT * FROM Orders WHERE orderid = '%s'", order_id);
-	int userNum = esql.executeQueryCount(query);
+      	//check if the order exists, the version is read before the order is shown
+      	String query = "SELECT orderid, login, paid, timeStampRecieved, total FROM Orders WHERE orderid = ?";
+	Integer version = esql.orderVersion(order_id);
 	
-	if(userNum > 0)
+	if(version != null)
 	{
-		esql.executeQuery(query);
+		esql.executeQuery(query, order_id);
 		boolean done = false;
 		do
 		{
@@ -695,29 +1623,36 @@ public class Cafe {
  					}		 					
  				}while(!chosen);
  				
- 				query = String.format("UPDATE Orders SET paid='%s' WHERE orderid=%s", pay, order_id);
- 				esql.executeUpdate(query);
- 				query =  String.format("SELECT * FROM Orders WHERE orderid = '%s'", order_id);
- 				esql.executeQuery(query);
+ 				//only saved if the order did not change since it was shown
+ 				try
+ 				{
+ 					esql.updatePaid(order_id, pay, version);
+ 				}catch(SQLException e)
+ 				{
+ 					if(!"40001".equals(e.getSQLState()))
+ 						throw e;
+ 					System.err.println("\t" + CONFLICT + e.getMessage() + ", please check it again");
+ 				}
+ 				version = esql.orderVersion(order_id);
+ 				query = "SELECT orderid, login, paid, timeStampRecieved, total FROM Orders WHERE orderid = ?";
+ 				esql.executeQuery(query, order_id);
 			}
 			else if(option.equals("2"))
 			{
 				System.out.println("\tThe following items are in the current order:");
-				query = String.format("SELECT * FROM itemStatus WHERE orderid='%s'", order_id);
-				esql.executeQuery(query);
+				query = "SELECT orderid, itemName, lastUpdated, status, comments, quantity, unitPrice FROM itemStatus WHERE orderid=?";
+				esql.executeQuery(query, order_id);
 				boolean more = false;
 				do
 				{
 					System.out.print("\tPlease enter the item name that you want to update: ");
 					String name = in.readLine();
 					//check if item exists
-			 		query =  String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", name);
-		 			userNum = esql.executeQueryCount(query);
-		 			
-		 			if(userNum > 0)
+		 			OrderItem item = esql.readItem(order_id, name);
+		 			if(item != null)
 		 			{
 		 				//give options to update the status
-		 				System.out.println("\tWhich status would you like to change it to?");
+		 				System.out.println("\t" + item.itemName + " is " + item.status + ", which status would you like to change it to?");
 		 				System.out.println("\t\t1. Finished");
 		 				System.out.println("\t\t2. Hasnt Started");
 		 				System.out.println("\t\t3. Started");
@@ -748,16 +1683,24 @@ public class Cafe {
 		 					}		 					
 		 				}while(!chosen);
 		 				
-		 				query = String.format("UPDATE itemStatus SET status='%s' WHERE itemname='%s' AND orderid=%s", status, name, order_id);
-		 				esql.executeUpdate(query);
+		 				//only saved if nobody changed the status meanwhile
+		 				try
+		 				{
+		 					esql.updateItemStatus(item, status);
+		 				}catch(SQLException e)
+		 				{
+		 					if(!"40001".equals(e.getSQLState()))
+		 						throw e;
+		 					System.err.println("\t" + CONFLICT + e.getMessage());
+		 				}
 		 			}
 		 			else
 		 			{
 		 				System.out.println("\tThe item does not exist in this order!");
 		 			}
 		 			
-		 			query = String.format("SELECT * FROM itemStatus WHERE orderid='%s'", order_id);
-					esql.executeQuery(query);
+		 			query = "SELECT orderid, itemName, lastUpdated, status, comments, quantity, unitPrice FROM itemStatus WHERE orderid=?";
+					esql.executeQuery(query, order_id);
 				
 		 			
 		 			//ask if more
@@ -806,11 +1749,24 @@ public class Cafe {
    public static void ViewOrderHistory(Cafe esql, String login){
       try{
       	System.out.println("The login is: " + login);
-      	String query = String.format("SELECT * FROM Orders WHERE login='%s' ORDER BY timestamprecieved DESC limit 5", login);
-      	if(esql.executeQuery(query) == 0)
+      	List<RecentOrders.Order> orders = esql.orderHistory(login);
+      	if(orders.isEmpty())
       	{
       		System.out.println("\tThere is no past order");
+      		return;
+      	}
+      	TableRenderer renderer = TableRenderer.create();
+      	renderer.start(new String[] { "orderid", "login", "paid", "timestamprecieved", "total" });
+      	for(RecentOrders.Order order : orders)
+      	{
+      		renderer.cell(Integer.toString(order.orderid));
+      		renderer.cell(order.login);
+      		renderer.cell(order.paid ? "t" : "f");
+      		renderer.cell(TableRenderer.timestamp(order.timeStampRecieved));
+      		renderer.cell(TableRenderer.money(order.total));
+      		renderer.endRow();
       	}
+      	renderer.finish();
       }catch(Exception e){
          System.err.println(e.getMessage());
      }
@@ -841,8 +1797,9 @@ public class Cafe {
 				System.out.print("\tPlease enter your new password: ");
 				password = in.readLine();
 			}while(password.equals(""));
-			query =  String.format("UPDATE Users SET password='%s' WHERE login='%s'", password, login);
-			esql.executeUpdate(query);
+			query = "UPDATE Users SET password=? WHERE login=?";
+			esql.executeUpdate(query, password, login);
+			esql.invalidateUser(login);
 	      	}
 	      	else if(input.equals("2"))
 	      	{
@@ -885,7 +1842,7 @@ public class Cafe {
       		//display user info 
       		System.out.print("Please enter the login you want to check: ");
       		String login = in.readLine();
-      		String query = String.format("SELECT * FROM Users WHERE login='%s'", login);
+      		String query = String.format("SELECT login, phoneNum, password, favItems, type FROM Users WHERE login='%s'", login);
       		esql.executeQuery(query);
       	
 		boolean finishUpdate = false;
@@ -907,8 +1864,9 @@ public class Cafe {
 					System.out.print("\tPlease enter the new password: ");
 					password = in.readLine();
 				}while(password.equals(""));
-				query =  String.format("UPDATE Users SET password='%s' WHERE login='%s'", password, login);
-				esql.executeUpdate(query);
+				query = "UPDATE Users SET password=? WHERE login=?";
+				esql.executeUpdate(query, password, login);
+				esql.invalidateUser(login);
 		      	}
 		      	else if(input.equals("2"))
 		      	{
@@ -959,6 +1917,7 @@ public class Cafe {
 		      		
 				query =  String.format("UPDATE Users SET type='%s' WHERE login='%s'", type, login);
 				esql.executeUpdate(query);
+				esql.invalidateUser(login);
 		      	}
 		      	else if(input.equals("9"))
 		      	{
@@ -971,7 +1930,7 @@ public class Cafe {
 		      	}
 		}while(!finishUpdate);
 	      	//display the info again
-	      	query = String.format("SELECT * FROM Users WHERE login='%s'", login);
+	      	query = String.format("SELECT login, phoneNum, password, favItems, type FROM Users WHERE login='%s'", login);
       		esql.executeQuery(query);
       		
       		System.out.print("Is there another user info you want to update?(Y/N) ");
@@ -1049,7 +2008,9 @@ public class Cafe {
 			
 			//perform INSERT 
 			query =  String.format("INSERT INTO Menu VALUES ('%s', '%s', %s, '%s', '%s')", name, type, price, description, imageurl);
-			esql.executeUpdate(query);	
+			esql.executeUpdate(query);
+			//write through, swap in the changed menu right away
+			esql.reloadMenu();
 		}
 		else if(input.equals("2"))
 		{
@@ -1057,7 +2018,7 @@ public class Cafe {
 			String name = in.readLine();
 			
 			//check if item exists
-	 		query =  String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", name);
+	 		query =  String.format("SELECT M.itemName, M.type, M.price, M.description, M.imageURL FROM Menu M WHERE M.itemName = '%s'", name);
  			int userNum = esql.executeQueryCount(query);
  			
  			if(userNum > 0)
@@ -1074,6 +2035,7 @@ public class Cafe {
 	 					//deletion confirm, delete
 	 					query = String.format("DELETE FROM Menu WHERE itemname='%s'", name);
 			 			esql.executeUpdate(query);
+			 			esql.reloadMenu();
 			 			System.out.println("\tItem Deleted");
 			 			deletion = true;
 			 		}
@@ -1101,7 +2063,7 @@ public class Cafe {
 			String name = in.readLine();
 			
 			//check if item exists
-	 		query =  String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", name);
+	 		query =  String.format("SELECT M.itemName, M.type, M.price, M.description, M.imageURL FROM Menu M WHERE M.itemName = '%s'", name);
  			int userNum = esql.executeQueryCount(query);
  			
  			if(userNum > 0)
@@ -1129,6 +2091,7 @@ public class Cafe {
 						}while(type.equals(""));
 						query =  String.format("UPDATE Menu SET type='%s' WHERE itemname='%s'", type, name);
 						esql.executeUpdate(query);
+						esql.reloadMenu();
 			 		}
 			 		else if(input.equals("2"))
 			 		{
@@ -1142,6 +2105,7 @@ public class Cafe {
 						Double price = Double.valueOf(tmp);
 						query =  String.format("UPDATE Menu SET price=%s WHERE itemname='%s'", price, name);
 						esql.executeUpdate(query);
+						esql.reloadMenu();
 			 		}
 			 		else if(input.equals("3"))
 			 		{
@@ -1149,6 +2113,7 @@ public class Cafe {
 			 			String description = in.readLine();
 			 			query =  String.format("UPDATE Menu SET description='%s' WHERE itemname='%s'", description, name);
 						esql.executeUpdate(query);
+						esql.reloadMenu();
 			 		}
 			 		else if(input.equals("4"))
 			 		{
@@ -1156,6 +2121,7 @@ public class Cafe {
 			 			String imageurl = in.readLine();
 			 			query =  String.format("UPDATE Menu SET imageurl='%s' WHERE itemname='%s'", imageurl, name);
 						esql.executeUpdate(query);
+						esql.reloadMenu();
 			 		}
 			 		else if(input.equals("5"))
 			 		{
@@ -1196,14 +2162,14 @@ public class Cafe {
       	String order_id = in.readLine();
       	
       	//check if the order exists
-      	String query =  String.format("SELECT * FROM Orders WHERE orderid = '%s'", order_id);
-	int userNum = esql.executeQueryCount(query);
+      	String query = "SELECT orderid, login, paid, timeStampRecieved, total FROM Orders WHERE orderid = ?";
+	int userNum = esql.executeQueryCount(query, order_id);
 	
 	if(userNum > 0)
 	{
-		esql.executeQuery(query);
-		query = String.format("SELECT * FROM itemStatus WHERE orderid='%s'", order_id);
-		esql.executeQuery(query);
+		esql.executeQuery(query, order_id);
+		query = "SELECT orderid, itemName, lastUpdated, status, comments, quantity, unitPrice FROM itemStatus WHERE orderid=?";
+		esql.executeQuery(query, order_id);
 	}
 	else
 	{
@@ -1215,15 +2181,87 @@ public class Cafe {
    }//end ViewOrderStatus
 
 
-//see any order that is unpaid within the past 24 hours
+   /*
+    * Prints the changes of one order, or for staff of every order, as they
+    * happen until the user presses Enter.  The changes are pushed by the
+    * database through the OrderFeed, nothing is polled.
+    **/
+   public static void WatchOrder(Cafe esql, boolean staff){
+      try{
+      	if(staff)
+      		System.out.print("\tPlease enter the order ID to watch, or nothing for all orders: ");
+      	else
+      		System.out.print("\tPlease enter your order ID: ");
+      	String input = in.readLine();
+      	if(input == null)
+      		return;
+      	input = input.trim();
+      	Integer order_id = (staff && input.isEmpty()) ? null : Integer.valueOf(input);
+
+	// changes arrive on the feed thread and are printed by a thread of this session;
+	// a session that falls far behind misses changes instead of holding up the feed
+	PrintStream out = Session.out();
+	BlockingQueue<OrderFeed.Change> changes = new ArrayBlockingQueue<OrderFeed.Change>(256);
+	OrderFeed.Listener listener = changes::offer;
+	OrderFeed feed = esql.getOrderFeed();
+	if(order_id == null)
+		feed.subscribeAll(listener);
+	else
+		feed.subscribe(order_id, listener);
+	Thread printer = new Thread(() -> {
+		try {
+			while(true)
+				out.println("\t" + changes.take());
+		} catch (InterruptedException e) {
+			// watching stopped.
+		}
+	}, "cafe-watch");
+	printer.setDaemon(true);
+	try
+	{
+		// subscribed first, so nothing between this read and the first change is lost
+		if(order_id != null)
+		{
+			String query = "SELECT itemName, status, lastUpdated FROM itemStatus WHERE orderid=?";
+			if(esql.executeQuery(query, order_id) == 0)
+				System.out.println("\tThe order has no items yet");
+		}
+		printer.start();
+		System.out.println("\tWatching, press Enter to stop");
+		in.readLine();
+	}
+	finally
+	{
+		feed.unsubscribe(listener);
+		printer.interrupt();
+	}
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+     }
+   }//end WatchOrder
+
+//see any order that is unpaid within the past 24 hours, served from the open orders in memory
    public static void ViewCurrentOrder(Cafe esql, String login){
       try{
       	
-      	String query = String.format("SELECT * FROM Orders WHERE paid='f' AND timestamprecieved >= NOW()-'1 day'::INTERVAL");
-      	if(esql.executeQuery(query) == 0)
+      	List<OpenOrders.Order> orders = esql.getOpenOrders().current(System.currentTimeMillis());
+      	if(orders.isEmpty())
       	{
       		System.out.println("\tThere is not current order");
+      		return;
+      	}
+      	TableRenderer renderer = TableRenderer.create();
+      	renderer.start(new String[] { "orderid", "login", "paid", "timestamprecieved", "total" });
+      	for(OpenOrders.Order order : orders)
+      	{
+      		renderer.cell(Integer.toString(order.orderid));
+      		renderer.cell(order.login);
+      		renderer.cell("f");
+      		renderer.cell(TableRenderer.timestamp(order.timeStampRecieved));
+      		renderer.cell(TableRenderer.money(order.total()));
+      		renderer.endRow();
       	}
+      	renderer.finish();
       	
       }catch(Exception e){
          System.err.println (e.getMessage());
@@ -1235,35 +2273,35 @@ public class Cafe {
       //make item status 
 	 		System.out.print("\tPlease enter the item name: ");
 	 		String item = in.readLine();
-	 		Double new_total = 0.0;
 	 		
-	 		//check if item exists
-	 		String query =  String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", item);
- 			int userNum = esql.executeQueryCount(query);
- 			
- 			if(userNum > 0)
- 			{
- 				//item name exists, insert
- 				String status = "Hasnt started";
- 			  query = String.format("INSERT INTO itemStatus VALUES (%s, '%s', CURRENT_TIMESTAMP, '%s')", order_id, item, status);
-		 		esql.executeUpdate(query);
-		 		
-		 		//find the new item price
-		 		query = String.format("SELECT M.price FROM Menu M WHERE M.itemName = '%s'", item);
-		 		new_total = Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		 		//add to old total price
-				query = String.format("SELECT o.total FROM Orders o WHERE o.orderid = '%s'", order_id);
-		 		new_total += Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		 		
-		 		//add to orders
-		 		query = String.format("UPDATE Orders o SET total= '%s' WHERE o.orderid = '%s'", new_total, order_id);
-		 		esql.executeUpdate(query);
-		 		
-		 		//test print the new total
-		 		query = String.format("SELECT o.total FROM Orders o WHERE o.orderid = '%s'", order_id);
-		 		new_total = Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-			}
- 			else
+	 		//unknown names are caught by the cached menu without a round trip,
+	 		//the insert still only succeeds if the item exists in the database.
+	 		//An item already in the order gets one more, in the same statement,
+	 		//unless it has started; the trigger adds its price to the order total
+	 		int userNum = 0;
+	 		MenuItem menuItem = esql.getMenu().get(item);
+	 		if(menuItem != null)
+	 		{
+	 			String status = "Hasnt started";
+	 			//a new item is priced from the menu, one more keeps the price it was ordered at
+	 			String query = "INSERT INTO itemStatus (orderid, itemName, lastUpdated, status, quantity, unitPrice) " +
+	 			               "SELECT ?, M.itemName, CURRENT_TIMESTAMP, ?, 1, M.price FROM Menu M WHERE M.itemName = ? " +
+	 			               "ON CONFLICT (orderid, itemName) DO UPDATE " +
+	 			               "SET quantity = itemStatus.quantity + 1, lastUpdated = CURRENT_TIMESTAMP " +
+	 			               "WHERE itemStatus.status LIKE '%Hasnt%' RETURNING unitPrice";
+	 			Double price = esql.queryForObject(query, rs -> rs.getDouble(1), order_id, status, item);
+	 			if(price != null)
+	 			{
+	 				userNum = 1;
+	 				esql.getOpenOrders().addToTotal(order_id, price);
+	 			}
+	 			//no row either because the item has started or because it left the menu since the cached copy was read
+	 			else if(esql.queryForObject("SELECT 1 FROM Menu M WHERE M.itemName = ?", rs -> rs.getInt(1), item) == null)
+	 				System.out.print("\tInvalid name!");
+	 			else
+	 				System.out.print("\tSorry the item has been processed, no more can be added");
+	 		}
+	 		else
  			{
  				System.out.print("\tInvalid name!");		
  			}
@@ -1280,45 +2318,34 @@ public class Cafe {
 		System.out.print("\tWhich item would you like to delete? ");
 		String item = in.readLine();
 
-		//check if item exists
-		String query =  String.format("SELECT * FROM itemStatus i WHERE i.itemName='%s' AND i.orderid='%s'", item, order_id);
-			int userNum = esql.executeQueryCount(query);
+		//take one away only if the item has not started, the last one removes the row;
+		//both run in one statement and the trigger subtracts the unit price from the order total
+		String query = "WITH fewer AS (UPDATE itemStatus SET quantity = quantity - 1, lastUpdated = CURRENT_TIMESTAMP " +
+		               "WHERE itemname=? AND orderid=? AND status LIKE '%Hasnt%' AND quantity > 1 RETURNING unitPrice), " +
+		               "gone AS (DELETE FROM itemStatus " +
+		               "WHERE itemname=? AND orderid=? AND status LIKE '%Hasnt%' AND quantity = 1 RETURNING unitPrice) " +
+		               "SELECT unitPrice FROM fewer UNION ALL SELECT unitPrice FROM gone";
+		Double price = esql.queryForObject(query, rs -> rs.getDouble(1), item, order_id, item, order_id);
 
-			if(userNum > 0)
+		if(price != null)
+		{
+			esql.getOpenOrders().addToTotal(order_id, -price);
+			System.out.println("\tDeleted!");
+		}
+		else
+		{
+			//nothing deleted, find out why
+			query = "SELECT i.status FROM itemStatus i WHERE i.itemName=? AND i.orderid=?";
+			String status = esql.queryForObject(query, rs -> rs.getString(1), item, order_id);
+			if(status != null)
 			{
-        // check status
-        query =  String.format("SELECT status FROM ItemStatus WHERE orderid = '%s' AND itemName='%s'", order_id, item);
-        String status = esql.executeQueryGetResult(query).get(0).get(0);
-          
-        //if item already started, cannot delete
-        if(status.contains("Hasnt"))
-      	{
-          //item name exists, delete
-      		query = String.format("DELETE FROM itemStatus WHERE itemname='%s' AND orderid='%s'", item, order_id);
-       		esql.executeUpdate(query);	
-      		System.out.println("\tDeleted!");
-
-		//add to old total price
-		query = String.format("SELECT o.total FROM Orders o WHERE o.orderid = '%s'", order_id);
-		Double total = Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		                                                            
-		//find the deleted item price
-		query = String.format("SELECT M.price FROM Menu M WHERE M.itemName='%s'", item);
-		total -= Double.valueOf(esql.executeQueryGetResult(query).get(0).get(0));
-		
-		//add to orders
-		query = String.format("UPDATE Orders o SET total= '%s' WHERE o.orderid = '%s'", total, order_id);
-		esql.executeUpdate(query);
-	}
-        else
-        {
-          System.out.println("\tSorry the item has been processed");
-        }
-     	}
-		 	else
-		 	{
-		 		System.out.print("\tThe item is not in your order list");
-		 	}
+				System.out.println("\tSorry the item has been processed");
+			}
+			else
+			{
+				System.out.print("\tThe item is not in your order list");
+			}
+		}
 		}catch(Exception e){
          System.err.println (e.getMessage());
      }
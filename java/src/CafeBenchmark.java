@@ -0,0 +1,240 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class measures the menu flows users spend their time in, the way a
+ * JMH suite would: each benchmark runs the real Cafe method against the
+ * database, fed a scripted session, for a few warmup iterations and then
+ * for the measured iterations, and reports operations per second and the
+ * bytes allocated per operation.  Work a benchmark needs before each call
+ * (placing the order an item is deleted from, say) is done outside the
+ * measured time.  The flows catch their own errors and print them to
+ * System.err, a call that printed anything there counts as failed and is
+ * left out of the timings.
+ *
+ * Settings, as system properties:
+ *    cafe.bench.warmup       warmup iterations (default 3)
+ *    cafe.bench.iterations   measured iterations (default 5)
+ *    cafe.bench.seconds      length of one iteration (default 2)
+ *
+ * The benchmarks log in as bench_customer and bench_employee, created if
+ * missing.  When they are done they delete the orders they placed, and
+ * the users if they created them.
+ *
+ */
+public class CafeBenchmark {
+
+   private static final int WARMUP = Integer.getInteger("cafe.bench.warmup", 3);
+   private static final int ITERATIONS = Integer.getInteger("cafe.bench.iterations", 5);
+   private static final int SECONDS = Integer.getInteger("cafe.bench.seconds", 2);
+
+   private static final String CUSTOMER = "bench_customer";
+   private static final String EMPLOYEE = "bench_employee";
+   private static final String PASSWORD = "bench";
+
+   /**
+    * The input of one call, made before the call and not measured
+    */
+   private interface Input {
+      String prepare () throws Exception;
+   }//end Input
+
+   /**
+    * The measured call
+    */
+   private interface Call {
+      void run () throws Exception;
+   }//end Call
+
+   /**
+    * One benchmark
+    */
+   private static class Benchmark {
+      final String name;
+      final Input input;
+      final Call call;
+
+      Benchmark (String name, Input input, Call call) {
+         this.name = name;
+         this.input = input;
+         this.call = call;
+      }//end Benchmark
+   }//end Benchmark
+
+   private final Cafe _esql;
+   private final PrintStream _discard = new PrintStream(OutputStream.nullOutputStream());
+   // what the flow printed to System.err, a flow reports its failures there
+   private final ByteArrayOutputStream _errors = new ByteArrayOutputStream();
+   private final PrintStream _errorStream = new PrintStream(this._errors, true);
+   private final List<Benchmark> _benchmarks = new ArrayList<Benchmark>();
+   private String _first;
+   private String _second;
+   private String _type;
+   private int _employeeOrder;
+   private int _order;
+   // the users setUp inserted, and the last order id before the run
+   // (nothing is deleted if setUp failed before reading it)
+   private final List<String> _createdUsers = new ArrayList<String>();
+   private int _lastOrderBefore = Integer.MAX_VALUE;
+
+   public CafeBenchmark (Cafe esql) {
+      this._esql = esql;
+   }//end CafeBenchmark
+
+   /**
+    * Runs every benchmark whose name contains the filter
+    *
+    * @param filter part of a benchmark name, or null for all of them
+    * @throws java.lang.Exception when the fixtures cannot be set up
+    */
+   public void run (String filter) throws Exception {
+      Session.install();
+      System.out.println(String.format("%d warmup and %d measured iterations of %d s", WARMUP, ITERATIONS, SECONDS));
+      System.out.println(String.format("%-20s %14s %10s %12s %14s %10s", "benchmark", "ops/s", "error", "us/op", "bytes/op", "failed"));
+      try {
+         setUp();
+         for (Benchmark benchmark : this._benchmarks)
+            if (filter == null || benchmark.name.contains(filter))
+               measure(benchmark);
+      } finally {
+         tearDown();
+      }//end try
+   }//end run
+
+   private void setUp () throws Exception {
+      String user = "INSERT INTO Users (login, phoneNum, password, favItems, type) VALUES (?, NULL, ?, '', ?) " +
+                    "ON CONFLICT (login) DO NOTHING";
+      this._lastOrderBefore = this._esql.queryForObject("SELECT COALESCE(max(orderid), 0) FROM Orders", rs -> rs.getInt(1));
+      if (this._esql.executeUpdate(user, CUSTOMER, PASSWORD, "Customer") > 0)
+         this._createdUsers.add(CUSTOMER);
+      if (this._esql.executeUpdate(user, EMPLOYEE, PASSWORD, "Employee") > 0)
+         this._createdUsers.add(EMPLOYEE);
+      this._esql.invalidateUser(CUSTOMER);
+      this._esql.invalidateUser(EMPLOYEE);
+
+      List<MenuItem> items = this._esql.reloadMenu().items();
+      if (items.size() < 2)
+         throw new IllegalStateException("the benchmarks need at least two menu items");
+      this._first = items.get(0).itemName;
+      this._second = items.get(1).itemName;
+      this._type = items.get(0).type;
+      this._employeeOrder = this._esql.createOrder(CUSTOMER, Arrays.asList(this._first)).orderid;
+
+      add("login", () -> CUSTOMER + "\n" + PASSWORD + "\n", () -> Cafe.LogIn(this._esql));
+      add("browseMenuName", () -> this._first + "\n", () -> Cafe.BrowseMenuName(this._esql));
+      add("browseMenuType", () -> this._type + "\n", () -> Cafe.BrowseMenuType(this._esql));
+      add("addOrder", () -> this._first + "\ny\n" + this._second + "\nn\n", () -> Cafe.AddOrder(this._esql, CUSTOMER));
+      add("addItemStatus", () -> {
+         this._order = this._esql.createOrder(CUSTOMER, Arrays.asList(this._first)).orderid;
+         return this._second + "\n";
+      }, () -> Cafe.addItemStatus(this._esql, this._order));
+      add("deleteItem", () -> {
+         this._order = this._esql.createOrder(CUSTOMER, Arrays.asList(this._first, this._second)).orderid;
+         return this._second + "\n";
+      }, () -> Cafe.deleteItem(this._esql, this._order));
+      add("updateItemStatus", () -> this._employeeOrder + "\n2\n" + this._first + "\n3\nn\n9\n",
+          () -> Cafe.EmployeeUpdateOrder(this._esql, EMPLOYEE));
+      add("viewCurrentOrder", () -> "", () -> Cafe.ViewCurrentOrder(this._esql, EMPLOYEE));
+   }//end setUp
+
+   private void tearDown () throws Exception {
+      // only the orders this run placed, and only the users it inserted
+      this._esql.executeUpdate("DELETE FROM ItemStatus WHERE orderid IN " +
+                               "(SELECT orderid FROM Orders WHERE login IN (?, ?) AND orderid > ?)",
+                               CUSTOMER, EMPLOYEE, this._lastOrderBefore);
+      int orders = this._esql.executeUpdate("DELETE FROM Orders WHERE login IN (?, ?) AND orderid > ?",
+                                            CUSTOMER, EMPLOYEE, this._lastOrderBefore);
+      int users = 0;
+      for (String login : this._createdUsers)
+         users += this._esql.executeUpdate("DELETE FROM Users WHERE login = ?", login);
+      this._esql.invalidateUser(CUSTOMER);
+      this._esql.invalidateUser(EMPLOYEE);
+      this._esql.invalidateHistory(CUSTOMER);
+      this._esql.invalidateHistory(EMPLOYEE);
+      // the benchmark orders are gone, drop them from the open orders too
+      this._esql.seedOpenOrders();
+      System.out.println("Deleted " + orders + " benchmark order(s) and " + users + " user(s)");
+   }//end tearDown
+
+   private void add (String name, Input input, Call call) {
+      this._benchmarks.add(new Benchmark(name, input, call));
+   }//end add
+
+   private void measure (Benchmark benchmark) throws Exception {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                                                  ? (com.sun.management.ThreadMXBean) threads : null;
+      long thread = Thread.currentThread().getId();
+      double[] rates = new double[ITERATIONS];
+      long ops = 0;
+      long nanos = 0;
+      long bytes = 0;
+      long failed = 0;
+
+      for (int iteration = -WARMUP; iteration < ITERATIONS; ++iteration) {
+         long iterationOps = 0;
+         long iterationNanos = 0;
+         long end = System.nanoTime() + SECONDS * 1000000000L;
+         while (System.nanoTime() < end) {
+            String script = benchmark.input.prepare();
+            this._errors.reset();
+            new Session(new BufferedReader(new StringReader(script)), this._discard, this._errorStream).bind();
+            try {
+               long allocated = allocations == null ? 0 : allocations.getThreadAllocatedBytes(thread);
+               long start = System.nanoTime();
+               benchmark.call.run();
+               long elapsed = System.nanoTime() - start;
+               // the flows catch their own exceptions, a failed operation is not timed
+               if (this._errors.size() > 0) {
+                  if (iteration >= 0 && failed++ == 0)
+                     System.out.println(benchmark.name + " failed: " + this._errors.toString().trim());
+                  continue;
+               }//end if
+               iterationNanos += elapsed;
+               if (allocations != null && iteration >= 0)
+                  bytes += allocations.getThreadAllocatedBytes(thread) - allocated;
+            } finally {
+               Session.unbind();
+            }//end try
+            ++iterationOps;
+         }//end while
+         if (iteration >= 0) {
+            rates[iteration] = iterationNanos == 0 ? 0 : iterationOps / (iterationNanos / 1e9);
+            ops += iterationOps;
+            nanos += iterationNanos;
+         }//end if
+      }//end for
+
+      double mean = 0;
+      for (double rate : rates)
+         mean += rate / rates.length;
+      double variance = 0;
+      for (double rate : rates)
+         variance += (rate - mean) * (rate - mean) / Math.max(1, rates.length - 1);
+      System.out.println(String.format("%-20s %14.1f %10.1f %12.1f %14s %10d", benchmark.name, mean, Math.sqrt(variance),
+                                       nanos / 1e3 / Math.max(1, ops),
+                                       allocations == null ? "n/a" : String.format("%,d", bytes / Math.max(1, ops)), failed));
+   }//end measure
+
+}//end CafeBenchmark
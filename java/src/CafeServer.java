@@ -0,0 +1,129 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the Cafe menus to many registers and kiosks from one
+ * process.  Every TCP client gets its own Session, with its own login and
+ * streams, and runs the same menu flows as the console on its own thread.
+ * On Java 21 and later each session runs on a virtual thread, earlier
+ * versions fall back to one platform thread per session.
+ *
+ * A client can be as simple as: nc localhost <port>
+ *
+ */
+public class CafeServer {
+
+   // disconnect clients that send nothing for this long, 0 waits forever
+   private static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("cafe.server.idleTimeoutMillis", 30 * 60 * 1000);
+
+   // address to listen on, only local clients by default
+   private static final String BIND_ADDRESS = System.getProperty("cafe.server.bind", "127.0.0.1");
+
+   private final Cafe _esql;
+   private final int _port;
+   private final AtomicInteger _sessions = new AtomicInteger();
+
+   /**
+    * Creates a new server
+    *
+    * @param esql the database access shared by every session
+    * @param port the TCP port to listen on
+    */
+   public CafeServer (Cafe esql, int port) {
+      this._esql = esql;
+      this._port = port;
+   }//end CafeServer
+
+   /**
+    * Accepts clients until the process is stopped
+    *
+    * @throws java.io.IOException when the port cannot be opened
+    */
+   public void serve () throws IOException {
+      Session.install();
+      ExecutorService sessions = newSessionExecutor();
+      ServerSocket server = new ServerSocket(this._port, 128, InetAddress.getByName(BIND_ADDRESS));
+      System.out.println("Listening on " + BIND_ADDRESS + ":" + this._port);
+      try {
+         while (true) {
+            Socket client = server.accept();
+            sessions.execute(() -> run(client));
+         }//end while
+      } finally {
+         server.close();
+         sessions.shutdownNow();
+      }//end try
+   }//end serve
+
+   private void run (Socket client) {
+      int active = this._sessions.incrementAndGet();
+      String peer = String.valueOf(client.getRemoteSocketAddress());
+      System.out.println("Session opened: " + peer + " (" + active + " active)");
+      try {
+         client.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+         client.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+         PrintStream out = new PrintStream(client.getOutputStream(), true, StandardCharsets.UTF_8);
+         new Session(in, out, out).bind();
+         try {
+            Cafe.Greeting();
+            Cafe.runSession(this._esql);
+            out.flush();
+         } finally {
+            Session.unbind();
+         }//end try
+      } catch (Exception e) {
+         System.err.println("Session " + peer + " failed: " + e.getMessage());
+      } finally {
+         try {
+            client.close();
+         } catch (IOException e) {
+            // ignored.
+         }//end try
+         active = this._sessions.decrementAndGet();
+         System.out.println("Session closed: " + peer + " (" + active + " active)");
+      }//end try
+   }//end run
+
+   /**
+    * @return an executor running every task on a new virtual thread when
+    *         the JVM has them, otherwise on a new platform thread
+    */
+   private static ExecutorService newSessionExecutor () {
+      try {
+         Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) virtual.invoke(null);
+      } catch (ReflectiveOperationException e) {
+         AtomicInteger count = new AtomicInteger();
+         return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "cafe-session-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+         });
+      }//end try
+   }//end newSessionExecutor
+
+}//end CafeServer
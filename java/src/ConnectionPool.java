@@ -0,0 +1,333 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are borrowed for one operation and handed back afterwards,
+ * so concurrent sessions share a small number of connections.
+ *
+ * Idle connections are validated when they are borrowed after sitting
+ * unused for a while, and connections idle longer than the idle timeout
+ * are closed down to the minimum size.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection owned by the pool together with the prepared
+    * statements cached on it.
+    */
+   public static class PooledConnection {
+      public final Connection connection;
+      public final StatementCache statements;
+      private long _lastUsed;
+
+      private PooledConnection (Connection connection, int cacheSize) {
+         this.connection = connection;
+         this.statements = new StatementCache(connection, cacheSize);
+         this._lastUsed = System.nanoTime();
+      }//end PooledConnection
+
+      private void close () {
+         this.statements.clear();
+         try {
+            this.connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }//end try
+      }//end close
+   }//end PooledConnection
+
+   // connection URL used to open new physical connections
+   private final String _url;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _maxWaitNanos;
+   private final long _idleTimeoutNanos;
+   private final long _validateAfterNanos;
+   private final int _statementCacheSize;
+
+   // guards _idle, _size and _closed
+   private final ReentrantLock _lock = new ReentrantLock();
+   private final Condition _available = this._lock.newCondition();
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+   private int _size = 0;
+   private boolean _closed = false;
+
+   // closes connections that stayed idle for too long
+   private final ScheduledExecutorService _evictor;
+
+   // wait-time metrics
+   private final AtomicLong _borrows = new AtomicLong();
+   private final AtomicLong _waits = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private final AtomicLong _maxWaitNanosSeen = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _validationFailures = new AtomicLong();
+   private final AtomicLong _evictions = new AtomicLong();
+
+   /**
+    * Creates a new pool and opens its minimum number of connections
+    *
+    * @param url the JDBC connection URL
+    * @param minSize the number of connections kept open even when idle
+    * @param maxSize the maximum number of open connections
+    * @param maxWaitMillis how long borrow() waits for a free connection
+    * @param idleTimeoutMillis how long a connection above minSize may stay idle
+    * @param validateAfterMillis idle time after which a connection is validated on borrow
+    * @param statementCacheSize the number of prepared statements cached per connection
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool (String url, int minSize, int maxSize, long maxWaitMillis,
+                          long idleTimeoutMillis, long validateAfterMillis,
+                          int statementCacheSize) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("invalid pool size: min " + minSize + ", max " + maxSize);
+      this._url = url;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+      this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+      this._validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(validateAfterMillis);
+      this._statementCacheSize = statementCacheSize;
+
+      for (int i = 0; i < minSize; ++i) {
+         this._idle.push(open());
+         ++this._size;
+      }//end for
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "cafe-pool-evictor");
+         t.setDaemon(true);
+         return t;
+      });
+      long period = Math.max(1000L, idleTimeoutMillis / 2);
+      this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting up to the configured maximum wait time
+    * when all connections are in use.
+    *
+    * @return a validated connection, to be handed back with release()
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow () throws SQLException {
+      this._borrows.incrementAndGet();
+      long start = System.nanoTime();
+      boolean waited = false;
+      while (true) {
+         PooledConnection pc = null;
+         boolean create = false;
+         this._lock.lock();
+         try {
+            long deadline = start + this._maxWaitNanos;
+            while (!this._closed && this._idle.isEmpty() && this._size >= this._maxSize) {
+               long left = deadline - System.nanoTime();
+               if (left <= 0) {
+                  this._timeouts.incrementAndGet();
+                  recordWait(start);
+                  throw new SQLException("Timed out waiting for a database connection ("
+                                         + this._maxSize + " in use)", "08001");
+               }//end if
+               waited = true;
+               try {
+                  this._available.awaitNanos(left);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection", "08001");
+               }//end try
+            }//end while
+            if (this._closed)
+               throw new SQLException("Connection pool is closed", "08003");
+            if (!this._idle.isEmpty()) {
+               pc = this._idle.pop();
+            } else {
+               ++this._size;
+               create = true;
+            }//end if
+         } finally {
+            this._lock.unlock();
+         }//end try
+
+         if (create) {
+            try {
+               pc = open();
+            } catch (SQLException e) {
+               discard(null);
+               throw e;
+            }//end try
+         } else if (System.nanoTime() - pc._lastUsed > this._validateAfterNanos && !isValid(pc)) {
+            // stale connection, drop it and try again
+            this._validationFailures.incrementAndGet();
+            discard(pc);
+            continue;
+         }//end if
+         if (waited)
+            recordWait(start);
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.
+    *
+    * @param pc the connection returned by borrow()
+    */
+   public void release (PooledConnection pc) {
+      pc._lastUsed = System.nanoTime();
+      this._lock.lock();
+      try {
+         if (!this._closed) {
+            this._idle.push(pc);
+            this._available.signal();
+            return;
+         }//end if
+         --this._size;
+      } finally {
+         this._lock.unlock();
+      }//end try
+      pc.close();
+   }//end release
+
+   /**
+    * Closes a borrowed connection that is no longer usable instead of
+    * handing it back.
+    *
+    * @param pc the connection returned by borrow()
+    */
+   public void discard (PooledConnection pc) {
+      if (pc != null)
+         pc.close();
+      this._lock.lock();
+      try {
+         --this._size;
+         this._available.signal();
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end discard
+
+   /**
+    * Closes every idle connection and stops handing out new ones.
+    * Borrowed connections are closed when they are released.
+    */
+   public void close () {
+      this._evictor.shutdownNow();
+      this._lock.lock();
+      try {
+         this._closed = true;
+         while (!this._idle.isEmpty()) {
+            this._idle.pop().close();
+            --this._size;
+         }//end while
+         this._available.signalAll();
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end close
+
+   /**
+    * @return a one line summary of the pool size and wait-time metrics
+    */
+   public String stats () {
+      int size, idle;
+      this._lock.lock();
+      try {
+         size = this._size;
+         idle = this._idle.size();
+      } finally {
+         this._lock.unlock();
+      }//end try
+      long waits = this._waits.get();
+      return String.format("pool size=%d idle=%d max=%d borrows=%d waits=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d invalid=%d evicted=%d",
+                           size, idle, this._maxSize, this._borrows.get(), waits,
+                           waits == 0 ? 0.0 : this._waitNanos.get() / 1e6 / waits,
+                           this._maxWaitNanosSeen.get() / 1e6, this._timeouts.get(),
+                           this._validationFailures.get(), this._evictions.get());
+   }//end stats
+
+   /**
+    * Opens a connection that is not part of the pool, for work that keeps
+    * one connection for the life of the process (LISTEN).  The caller
+    * closes it.
+    *
+    * @return a new connection to the pool's database
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openDedicated () throws SQLException {
+      return DriverManager.getConnection(this._url);
+   }//end openDedicated
+
+   public long getBorrowCount () { return this._borrows.get(); }
+   public long getWaitCount () { return this._waits.get(); }
+   public long getTotalWaitNanos () { return this._waitNanos.get(); }
+   public long getMaxWaitNanos () { return this._maxWaitNanosSeen.get(); }
+   public long getTimeoutCount () { return this._timeouts.get(); }
+
+   private PooledConnection open () throws SQLException {
+      return new PooledConnection(DriverManager.getConnection(this._url), this._statementCacheSize);
+   }//end open
+
+   private static boolean isValid (PooledConnection pc) {
+      try {
+         return pc.connection.isValid(2);
+      } catch (SQLException e) {
+         return false;
+      }//end try
+   }//end isValid
+
+   private void recordWait (long start) {
+      long waited = System.nanoTime() - start;
+      this._waits.incrementAndGet();
+      this._waitNanos.addAndGet(waited);
+      this._maxWaitNanosSeen.accumulateAndGet(waited, Math::max);
+   }//end recordWait
+
+   private void evictIdle () {
+      ArrayDeque<PooledConnection> evicted = new ArrayDeque<PooledConnection>();
+      long now = System.nanoTime();
+      this._lock.lock();
+      try {
+         // the deque is used as a stack, the oldest idle connections sit at the end
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext() && this._size > this._minSize) {
+            PooledConnection pc = it.next();
+            if (now - pc._lastUsed < this._idleTimeoutNanos)
+               break;
+            it.remove();
+            --this._size;
+            evicted.add(pc);
+         }//end while
+      } finally {
+         this._lock.unlock();
+      }//end try
+      for (PooledConnection pc : evicted) {
+         pc.close();
+         this._evictions.incrementAndGet();
+      }//end for
+   }//end evictIdle
+
+}//end ConnectionPool
@@ -0,0 +1,131 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class remembers the users that logged in recently, so repeated
+ * logins are checked without a database round trip.  Passwords are never
+ * kept: every entry stores a random salt and the SHA-256 digest of the
+ * salt and the password.
+ *
+ * Entries expire after a while and are dropped whenever the password or
+ * type of the user is changed through Cafe, so a change made by another
+ * process is picked up at the latest when the entry expires.
+ *
+ */
+public class CredentialCache {
+
+   private static class Entry {
+      final byte[] salt;
+      final byte[] digest;
+      final String type;
+      final long expires;
+
+      Entry (byte[] salt, byte[] digest, String type, long expires) {
+         this.salt = salt;
+         this.digest = digest;
+         this.type = type;
+         this.expires = expires;
+      }//end Entry
+   }//end Entry
+
+   private static final SecureRandom RANDOM = new SecureRandom();
+
+   private final int _capacity;
+   private final long _ttlNanos;
+   private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+   /**
+    * Creates a new cache
+    *
+    * @param capacity the maximum number of users remembered
+    * @param ttlMillis how long a successful login is remembered
+    */
+   public CredentialCache (int capacity, long ttlMillis) {
+      this._capacity = capacity;
+      this._ttlNanos = ttlMillis * 1000000L;
+   }//end CredentialCache
+
+   /**
+    * Checks a login against the cache
+    *
+    * @param login the user login
+    * @param password the password that was entered
+    * @return the user's type, or null if the user is not cached or the
+    *         password does not match what was cached
+    */
+   public String verify (String login, String password) {
+      Entry entry = this._entries.get(key(login));
+      if (entry == null)
+         return null;
+      if (System.nanoTime() - entry.expires > 0) {
+         this._entries.remove(key(login), entry);
+         return null;
+      }//end if
+      return MessageDigest.isEqual(entry.digest, digest(entry.salt, password)) ? entry.type : null;
+   }//end verify
+
+   /**
+    * Remembers a successful login
+    *
+    * @param login the user login
+    * @param password the password that was verified by the database
+    * @param type the user's type
+    */
+   public void put (String login, String password, String type) {
+      if (this._entries.size() >= this._capacity) {
+         // full, drop some entry to make room
+         Iterator<String> it = this._entries.keySet().iterator();
+         if (it.hasNext()) {
+            it.next();
+            it.remove();
+         }//end if
+      }//end if
+      byte[] salt = new byte[16];
+      RANDOM.nextBytes(salt);
+      this._entries.put(key(login), new Entry(salt, digest(salt, password), type,
+                                              System.nanoTime() + this._ttlNanos));
+   }//end put
+
+   /**
+    * Forgets a user, called whenever the user's password or type changes
+    *
+    * @param login the user login
+    */
+   public void invalidate (String login) {
+      this._entries.remove(key(login));
+   }//end invalidate
+
+   // char(50) logins compare without trailing blanks, a no-op on varchar
+   private static String key (String login) {
+      return MenuItem.trim(login);
+   }//end key
+
+   private static byte[] digest (byte[] salt, String password) {
+      try {
+         MessageDigest sha = MessageDigest.getInstance("SHA-256");
+         sha.update(salt);
+         return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+      } catch (NoSuchAlgorithmException e) {
+         // every JVM ships SHA-256
+         throw new IllegalStateException(e);
+      }//end try
+   }//end digest
+
+}//end CredentialCache
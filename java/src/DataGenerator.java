@@ -0,0 +1,465 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates Orders and ItemStatus rows for the customers and
+ * menu already in the database, in the ';' separated format of the data
+ * directory.  The rows go either to orders.csv and itemStatus.csv, to be
+ * loaded later with the import command, or straight into the tables with
+ * COPY.
+ *
+ * The orders are cut into chunks that are generated in parallel, each one
+ * from its own random stream derived from the seed and the chunk number,
+ * and written in order, so the same seed, size and end date always give
+ * the same files.
+ *
+ * Settings, as system properties:
+ *    cafe.generate.seed    random seed (default 1)
+ *    cafe.generate.days    days of orders to generate (default 365)
+ *    cafe.generate.until   last day of orders, yyyy-mm-dd (default today)
+ *
+ */
+public class DataGenerator {
+
+   private static final long SEED = Long.getLong("cafe.generate.seed", 1L);
+   private static final int DAYS = Integer.getInteger("cafe.generate.days", 365);
+   private static final String UNTIL = System.getProperty("cafe.generate.until");
+
+   // orders per chunk of work
+   private static final int CHUNK_ORDERS = 50000;
+
+   // share of orders with 1, 2, 3, 4 and 5 items
+   private static final double[] ITEM_COUNTS = cumulative(new double[] { 35, 30, 20, 10, 5 });
+
+   // orders per opening hour, from 6 to 19 o'clock, busy at breakfast and lunch
+   private static final int FIRST_HOUR = 6;
+   private static final double[] HOURS = cumulative(new double[] { 4, 9, 12, 8, 6, 9, 12, 9, 5, 5, 6, 5, 4, 3 });
+
+   private static final String[] COMMENTS = { "No sugar", "Extra hot", "Oat milk", "To go", "Less ice" };
+
+   private final Cafe _esql;
+   private final String[] _logins;
+   private final double[] _loginWeights;
+   private final String[] _items;
+   private final long[] _itemCents;
+   private final double[] _itemWeights;
+   private final long _firstOrder;
+   private final long _endSecond;
+
+   /**
+    * Reads the customers, the menu and the next order id from the database
+    *
+    * @param esql the database access
+    * @throws java.sql.SQLException when the database cannot be read
+    */
+   public DataGenerator (Cafe esql) throws SQLException {
+      this._esql = esql;
+      List<String> logins = new ArrayList<String>();
+      esql.query("SELECT u.login FROM Users u WHERE u.type = 'Customer' ORDER BY u.login", 1000,
+                 rs -> logins.add(escape(MenuItem.trim(rs.getString(1)))));
+      MenuSnapshot menu = esql.reloadMenu();
+      if (logins.isEmpty() || menu.items().isEmpty())
+         throw new SQLException("Users needs customers and Menu needs items before orders can be generated");
+
+      SplittableRandom random = new SplittableRandom(SEED);
+      this._logins = logins.toArray(new String[0]);
+      this._loginWeights = zipf(this._logins.length, 0.8);
+
+      // a few items sell far more than the rest, which ones depends on the seed
+      List<MenuItem> items = new ArrayList<MenuItem>(menu.items());
+      for (int i = items.size() - 1; i > 0; --i) {
+         int j = random.nextInt(i + 1);
+         MenuItem t = items.get(i);
+         items.set(i, items.get(j));
+         items.set(j, t);
+      }//end for
+      this._items = new String[items.size()];
+      this._itemCents = new long[items.size()];
+      for (int i = 0; i < items.size(); ++i) {
+         this._items[i] = escape(items.get(i).itemName);
+         this._itemCents[i] = Math.round(items.get(i).price * 100);
+      }//end for
+      this._itemWeights = zipf(this._items.length, 1.0);
+
+      this._firstOrder = esql.queryForObject("SELECT COALESCE(max(orderid), 0) + 1 FROM Orders", rs -> rs.getLong(1));
+      LocalDate until = UNTIL == null ? LocalDate.now() : LocalDate.parse(UNTIL);
+      this._endSecond = until.plusDays(1).toEpochDay() * 86400L;
+   }//end DataGenerator
+
+   /**
+    * Writes orders.csv and itemStatus.csv
+    *
+    * @param dir the directory to write to
+    * @param orders the number of orders to generate
+    * @throws java.lang.Exception when generating or writing failed
+    */
+   public void writeFiles (File dir, long orders) throws Exception {
+      dir.mkdirs();
+      long started = System.nanoTime();
+      long[] rows = new long[2];
+      try (Writer ordersOut = open(new File(dir, "orders.csv"));
+           Writer itemsOut = open(new File(dir, "itemStatus.csv"));
+           Chunks chunks = new Chunks(orders, true, true, false)) {
+         Chunk chunk;
+         while ((chunk = chunks.next()) != null) {
+            ordersOut.write(chunk.orders.toString());
+            itemsOut.write(chunk.items.toString());
+            rows[0] += chunk.orderRows;
+            rows[1] += chunk.itemRows;
+            progress(rows, orders, started);
+         }//end while
+      }//end try
+      report(rows, started);
+      System.out.println("Load them with: import " + dir);
+   }//end writeFiles
+
+   /**
+    * Copies the generated rows straight into Orders and ItemStatus.  The
+    * orders go first, then the same chunks are generated again for their
+    * items, which is cheaper than holding them until the orders are in.
+    *
+    * @param orders the number of orders to generate
+    * @throws java.lang.Exception when generating or copying failed
+    */
+   public void copy (long orders) throws Exception {
+      long started = System.nanoTime();
+      long[] rows = new long[2];
+      ConnectionPool pool = this._esql.getPool();
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      boolean broken = false;
+      try {
+         Connection conn = pc.connection;
+         conn.setAutoCommit(false);
+         try (Statement stmt = conn.createStatement()) {
+            try (Chunks chunks = new Chunks(orders, true, false, false)) {
+               rows[0] = BulkLoader.copyIn(conn, "COPY Orders (orderid, login, paid, timeStampRecieved, total) FROM STDIN WITH DELIMITER ';'",
+                                           new ChunkReader(chunks, true, rows, orders, started));
+            }//end try
+            // the generated totals already include their items, the items carry their
+            // prices, and nobody watches generated orders: skip the total, price and
+            // notify triggers (not the foreign keys)
+            stmt.executeUpdate("ALTER TABLE ItemStatus DISABLE TRIGGER USER");
+            try (Chunks chunks = new Chunks(orders, false, true, true)) {
+               rows[1] = BulkLoader.copyIn(conn, "COPY ItemStatus (orderid, itemName, lastUpdated, status, comments, unitPrice) FROM STDIN WITH DELIMITER ';'",
+                                           new ChunkReader(chunks, false, rows, orders, started));
+            }//end try
+            stmt.executeUpdate("ALTER TABLE ItemStatus ENABLE TRIGGER USER");
+            stmt.execute("SELECT setval('orders_orderid_seq', COALESCE((SELECT max(orderid) FROM Orders), 0) + 1, false)");
+            conn.commit();
+         } catch (Exception e) {
+            try {
+               conn.rollback();
+            } catch (SQLException ignored) {
+               broken = true;
+            }//end try
+            throw e;
+         } finally {
+            conn.setAutoCommit(true);
+         }//end try
+      } finally {
+         if (broken)
+            pool.discard(pc);
+         else
+            pool.release(pc);
+      }//end try
+      report(rows, started);
+   }//end copy
+
+   /**
+    * The rows of one chunk of orders, in COPY text format
+    */
+   private static class Chunk {
+      final StringBuilder orders;
+      final StringBuilder items;
+      long orderRows = 0;
+      long itemRows = 0;
+
+      Chunk (int orders, boolean withOrders, boolean withItems) {
+         this.orders = new StringBuilder(withOrders ? orders * 64 : 0);
+         this.items = new StringBuilder(withItems ? orders * 160 : 0);
+      }//end Chunk
+   }//end Chunk
+
+   /**
+    * Generates one chunk.  Every value is drawn whether or not its table is
+    * wanted, so both tables see the same orders.
+    */
+   private Chunk generate (long chunk, long orders, boolean withOrders, boolean withItems, boolean withPrices) {
+      long first = chunk * CHUNK_ORDERS;
+      int count = (int) Math.min(CHUNK_ORDERS, orders - first);
+      SplittableRandom random = new SplittableRandom(SEED + (chunk + 1) * 0x9E3779B97F4A7C15L);
+      Chunk out = new Chunk(count, withOrders, withItems);
+      long firstDay = this._endSecond / 86400L - DAYS;
+      int[] picked = new int[ITEM_COUNTS.length];
+
+      for (int n = 0; n < count; ++n) {
+         long i = first + n;
+         long orderid = this._firstOrder + i;
+         String login = this._logins[pick(this._loginWeights, random)];
+         // orders spread evenly over the days, by opening hour within a day
+         long day = firstDay + i * DAYS / orders;
+         long received = day * 86400L + (FIRST_HOUR + pick(HOURS, random)) * 3600L + random.nextInt(3600);
+         long age = this._endSecond - received;
+         boolean recent = age < 86400L;
+         boolean paid = recent ? random.nextInt(2) == 0 : random.nextInt(200) != 0;
+
+         int items = Math.min(pick(ITEM_COUNTS, random) + 1, this._items.length);
+         long total = 0;
+         for (int k = 0; k < items; ++k) {
+            int item;
+            boolean again;
+            do {
+               // an item is only listed once per order
+               item = pick(this._itemWeights, random);
+               again = false;
+               for (int p = 0; p < k; ++p)
+                  again |= picked[p] == item;
+            } while (again);
+            picked[k] = item;
+            total += this._itemCents[item];
+
+            long updated = received + 60 + random.nextInt(900);
+            String status = !recent || random.nextInt(4) == 0 ? "Finished" : random.nextInt(2) == 0 ? "Started" : "Hasnt started";
+            String comment = random.nextInt(10) == 0 ? COMMENTS[random.nextInt(COMMENTS.length)] : "";
+            if (withItems) {
+               StringBuilder b = out.items;
+               b.append(orderid).append(';').append(this._items[item]).append(';');
+               timestamp(b, updated);
+               b.append(';').append(status).append(';').append(comment);
+               if (withPrices)
+                  cents(b.append(';'), this._itemCents[item]);
+               b.append('\n');
+               ++out.itemRows;
+            }//end if
+         }//end for
+
+         if (withOrders) {
+            StringBuilder b = out.orders;
+            b.append(orderid).append(';').append(login).append(';').append(paid ? 't' : 'f').append(';');
+            timestamp(b, received);
+            cents(b.append(';'), total).append('\n');
+            ++out.orderRows;
+         }//end if
+      }//end for
+      return out;
+   }//end generate
+
+   private static StringBuilder cents (StringBuilder b, long cents) {
+      b.append(cents / 100).append('.');
+      if (cents % 100 < 10)
+         b.append('0');
+      return b.append(cents % 100);
+   }//end cents
+
+   /**
+    * Hands out the chunks in order while the next ones are generated in
+    * parallel, never more than a few chunks per thread ahead
+    */
+   private class Chunks implements AutoCloseable {
+      private final long _orders;
+      private final boolean _withOrders;
+      private final boolean _withItems;
+      private final boolean _withPrices;
+      private final long _chunks;
+      private final int _ahead;
+      private final ExecutorService _workers;
+      private final ArrayDeque<Future<Chunk>> _pending = new ArrayDeque<Future<Chunk>>();
+      private long _submitted = 0;
+
+      Chunks (long orders, boolean withOrders, boolean withItems, boolean withPrices) {
+         this._orders = orders;
+         this._withOrders = withOrders;
+         this._withItems = withItems;
+         this._withPrices = withPrices;
+         this._chunks = (orders + CHUNK_ORDERS - 1) / CHUNK_ORDERS;
+         int threads = Runtime.getRuntime().availableProcessors();
+         this._ahead = threads * 2;
+         this._workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "cafe-generate");
+            t.setDaemon(true);
+            return t;
+         });
+      }//end Chunks
+
+      Chunk next () throws IOException {
+         while (this._submitted < this._chunks && this._pending.size() < this._ahead) {
+            long chunk = this._submitted++;
+            this._pending.add(this._workers.submit(() -> generate(chunk, this._orders, this._withOrders, this._withItems, this._withPrices)));
+         }//end while
+         Future<Chunk> f = this._pending.poll();
+         if (f == null)
+            return null;
+         try {
+            return f.get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating");
+         } catch (ExecutionException e) {
+            throw new IOException("generating failed", e.getCause());
+         }//end try
+      }//end next
+
+      @Override
+      public void close () {
+         this._workers.shutdownNow();
+      }//end close
+   }//end Chunks
+
+   /**
+    * Reads the rows of one table from the chunks, for COPY
+    */
+   private static class ChunkReader extends Reader {
+      private final Chunks _chunks;
+      private final boolean _orders;
+      private final long[] _rows;
+      private final long _total;
+      private final long _started;
+      private StringBuilder _text = new StringBuilder();
+      private int _pos = 0;
+
+      ChunkReader (Chunks chunks, boolean orders, long[] rows, long total, long started) {
+         this._chunks = chunks;
+         this._orders = orders;
+         this._rows = rows;
+         this._total = total;
+         this._started = started;
+      }//end ChunkReader
+
+      @Override
+      public int read (char[] buffer, int offset, int length) throws IOException {
+         while (this._pos == this._text.length()) {
+            Chunk chunk = this._chunks.next();
+            if (chunk == null)
+               return -1;
+            this._text = this._orders ? chunk.orders : chunk.items;
+            this._pos = 0;
+            this._rows[this._orders ? 0 : 1] += this._orders ? chunk.orderRows : chunk.itemRows;
+            progress(this._rows, this._total, this._started);
+         }//end while
+         int n = Math.min(length, this._text.length() - this._pos);
+         this._text.getChars(this._pos, this._pos + n, buffer, offset);
+         this._pos += n;
+         return n;
+      }//end read
+
+      @Override
+      public void close () {
+      }//end close
+   }//end ChunkReader
+
+   private static Writer open (File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 20);
+   }//end open
+
+   private static long lastProgress = 0;
+
+   private static synchronized void progress (long[] rows, long total, long started) {
+      long now = System.nanoTime();
+      if (now - lastProgress < 1000000000L)
+         return;
+      lastProgress = now;
+      double seconds = (now - started) / 1e9;
+      System.out.println(String.format("Generated %,d of %,d orders, %,d items (%,.0f rows/s)",
+                                       rows[0], total, rows[1], (rows[0] + rows[1]) / seconds));
+   }//end progress
+
+   private static void report (long[] rows, long started) {
+      double seconds = (System.nanoTime() - started) / 1e9;
+      System.out.println(String.format("Orders %,d rows, ItemStatus %,d rows in %.1f s (%,.0f rows/s)",
+                                       rows[0], rows[1], seconds, (rows[0] + rows[1]) / seconds));
+   }//end report
+
+   /**
+    * Appends a timestamp as yyyy-mm-dd hh:mm:ss
+    */
+   private static void timestamp (StringBuilder b, long second) {
+      LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(second, 86400L));
+      int time = (int) Math.floorMod(second, 86400L);
+      b.append(date.getYear()).append('-');
+      two(b, date.getMonthValue());
+      b.append('-');
+      two(b, date.getDayOfMonth());
+      b.append(' ');
+      two(b, time / 3600);
+      b.append(':');
+      two(b, time / 60 % 60);
+      b.append(':');
+      two(b, time % 60);
+   }//end timestamp
+
+   private static void two (StringBuilder b, int value) {
+      if (value < 10)
+         b.append('0');
+      b.append(value);
+   }//end two
+
+   /**
+    * Escapes the delimiter and backslashes for COPY text format
+    */
+   private static String escape (String value) {
+      if (value.indexOf(';') < 0 && value.indexOf('\\') < 0)
+         return value;
+      return value.replace("\\", "\\\\").replace(";", "\\;");
+   }//end escape
+
+   /**
+    * @return the cumulative weights of ranks 1..n of a Zipf distribution
+    */
+   private static double[] zipf (int n, double exponent) {
+      double[] weights = new double[n];
+      for (int i = 0; i < n; ++i)
+         weights[i] = 1.0 / Math.pow(i + 1, exponent);
+      return cumulative(weights);
+   }//end zipf
+
+   private static double[] cumulative (double[] weights) {
+      double[] sums = new double[weights.length];
+      double sum = 0;
+      for (int i = 0; i < weights.length; ++i)
+         sums[i] = sum += weights[i];
+      for (int i = 0; i < sums.length; ++i)
+         sums[i] /= sum;
+      return sums;
+   }//end cumulative
+
+   /**
+    * @return an index drawn with the given cumulative weights
+    */
+   private static int pick (double[] cumulative, SplittableRandom random) {
+      int i = Arrays.binarySearch(cumulative, random.nextDouble());
+      return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+   }//end pick
+
+}//end DataGenerator
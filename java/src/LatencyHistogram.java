@@ -0,0 +1,139 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in log-linear buckets: values below 128 ns
+ * get a bucket each, above that every power of two is split into 64
+ * buckets, so any percentile is within about 1.5% of the real value while
+ * the histogram stays a fixed 30 KB.  Recording is lock free and safe from
+ * any number of threads.
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 7;
+   private static final int LINEAR = 1 << SUB_BITS;
+   private static final int HALF = LINEAR / 2;
+   private static final int BUCKETS = LINEAR + (64 - SUB_BITS) * HALF;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * Records one value
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record (long nanos) {
+      if (nanos < 0)
+         nanos = 0;
+      this._counts.incrementAndGet(index(nanos));
+      this._count.incrementAndGet();
+      this._sum.addAndGet(nanos);
+      long max;
+      while (nanos > (max = this._max.get()) && !this._max.compareAndSet(max, nanos))
+         ;
+   }//end record
+
+   /**
+    * Adds the values recorded by another histogram
+    *
+    * @param other the histogram to add
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long n = other._counts.get(i);
+         if (n != 0)
+            this._counts.addAndGet(i, n);
+      }//end for
+      this._count.addAndGet(other._count.get());
+      this._sum.addAndGet(other._sum.get());
+      long max;
+      long otherMax = other._max.get();
+      while (otherMax > (max = this._max.get()) && !this._max.compareAndSet(max, otherMax))
+         ;
+   }//end add
+
+   /**
+    * @return the number of values recorded
+    */
+   public long count () {
+      return this._count.get();
+   }//end count
+
+   /**
+    * @return the mean in nanoseconds, 0 when empty
+    */
+   public double mean () {
+      long count = this._count.get();
+      return count == 0 ? 0 : (double) this._sum.get() / count;
+   }//end mean
+
+   /**
+    * @return the largest value in nanoseconds
+    */
+   public long max () {
+      return this._max.get();
+   }//end max
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the value in nanoseconds at or below which that share of the values lies
+    */
+   public long percentile (double percentile) {
+      long count = this._count.get();
+      if (count == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += this._counts.get(i);
+         if (seen >= rank)
+            return Math.min(value(i), this._max.get());
+      }//end for
+      return this._max.get();
+   }//end percentile
+
+   /**
+    * @return count, mean, p50, p99, p999 and max in milliseconds
+    */
+   @Override
+   public String toString () {
+      return String.format("n=%d mean=%.3f p50=%.3f p99=%.3f p999=%.3f max=%.3f ms", count(), mean() / 1e6,
+                           percentile(50) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6, max() / 1e6);
+   }//end toString
+
+   private static int index (long value) {
+      if (value < LINEAR)
+         return (int) value;
+      int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+      return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+   }//end index
+
+   /**
+    * @return the middle of the bucket
+    */
+   private static long value (int index) {
+      if (index < LINEAR)
+         return index;
+      int shift = (index - LINEAR) / HALF + 1;
+      long lower = (long) ((index - LINEAR) % HALF + HALF) << shift;
+      return lower + (1L << shift) / 2;
+   }//end value
+
+}//end LatencyHistogram
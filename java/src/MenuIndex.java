@@ -0,0 +1,205 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is a search index over one MenuSnapshot.  It keeps the items
+ * bucketed by type, a prefix trie over the item names and the words in
+ * them, and a trigram index over the words of the names and descriptions,
+ * so a partial or misspelled search text still finds the item.
+ *
+ * The index is built once per snapshot and never changes afterwards.
+ *
+ */
+public class MenuIndex {
+
+   /**
+    * One search result
+    */
+   public static class Match {
+      public final MenuItem item;
+      public final double score;
+
+      private Match (MenuItem item, double score) {
+         this.item = item;
+         this.score = score;
+      }//end Match
+   }//end Match
+
+   // scores of the different kinds of matches, the best one counts
+   private static final double SCORE_EXACT_NAME = 1.0;
+   private static final double SCORE_NAME_PREFIX = 0.9;
+   private static final double SCORE_WORD_PREFIX = 0.8;
+   private static final double SCORE_TYPE = 0.7;
+   private static final double SCORE_TRIGRAM = 0.6;
+
+   // trigram matches below this similarity are not reported
+   private static final double MIN_SIMILARITY = 0.6;
+
+   /**
+    * A prefix trie node, every node lists the items below it
+    */
+   private static class TrieNode {
+      final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+      final Set<Integer> items = new LinkedHashSet<Integer>();
+   }//end TrieNode
+
+   private final List<MenuItem> _items;
+   private final Map<String, List<MenuItem>> _byType = new HashMap<String, List<MenuItem>>();
+   private final Map<String, List<Integer>> _byTypeLower = new HashMap<String, List<Integer>>();
+   private final TrieNode _names = new TrieNode();
+   private final TrieNode _words = new TrieNode();
+   private final Map<String, Set<Integer>> _trigrams = new HashMap<String, Set<Integer>>();
+
+   /**
+    * Builds the index
+    *
+    * @param items the menu items, in display order
+    */
+   public MenuIndex (List<MenuItem> items) {
+      this._items = items;
+      for (int id = 0; id < items.size(); ++id) {
+         MenuItem item = items.get(id);
+         this._byType.computeIfAbsent(item.type, k -> new ArrayList<MenuItem>()).add(item);
+         this._byTypeLower.computeIfAbsent(item.type.toLowerCase(), k -> new ArrayList<Integer>()).add(id);
+
+         String name = item.itemName.toLowerCase();
+         insert(this._names, name, id);
+         for (String word : words(name)) {
+            insert(this._words, word, id);
+            addTrigrams(word, id);
+         }//end for
+         if (item.description != null)
+            for (String word : words(item.description.toLowerCase()))
+               addTrigrams(word, id);
+      }//end for
+      // the buckets are handed out by byType, the snapshot stays immutable
+      this._byType.replaceAll((type, bucket) -> Collections.unmodifiableList(bucket));
+   }//end MenuIndex
+
+   /**
+    * @param type the exact item type
+    * @return the items of that type in display order
+    */
+   public List<MenuItem> byType (String type) {
+      List<MenuItem> bucket = this._byType.get(type);
+      return bucket == null ? Collections.<MenuItem>emptyList() : bucket;
+   }//end byType
+
+   /**
+    * Searches the menu.  Exact names rank first, then name prefixes, then
+    * prefixes of words in the name, then the type, then fuzzy matches
+    * against the words of names and descriptions.
+    *
+    * @param text the search text, case is ignored
+    * @return the matches, best first
+    */
+   public List<Match> search (String text) {
+      List<Match> result = new ArrayList<Match>();
+      if (text == null)
+         return result;
+      String query = text.trim().toLowerCase();
+      if (query.isEmpty())
+         return result;
+
+      double[] scores = new double[this._items.size()];
+      for (int id : lookup(this._words, query))
+         scores[id] = SCORE_WORD_PREFIX;
+      for (int id : lookup(this._names, query))
+         scores[id] = this._items.get(id).itemName.equalsIgnoreCase(query) ? SCORE_EXACT_NAME : SCORE_NAME_PREFIX;
+      List<Integer> type = this._byTypeLower.get(query);
+      if (type != null)
+         for (int id : type)
+            raise(scores, id, SCORE_TYPE);
+
+      // trigram similarity: the share of the query's trigrams an item contains
+      Set<String> grams = new LinkedHashSet<String>();
+      for (String word : words(query))
+         trigrams(word, false, grams);
+      if (!grams.isEmpty()) {
+         int[] hits = new int[scores.length];
+         for (String gram : grams) {
+            Set<Integer> ids = this._trigrams.get(gram);
+            if (ids != null)
+               for (int id : ids)
+                  ++hits[id];
+         }//end for
+         for (int id = 0; id < hits.length; ++id) {
+            double similarity = (double) hits[id] / grams.size();
+            if (similarity >= MIN_SIMILARITY)
+               raise(scores, id, SCORE_TRIGRAM * similarity);
+         }//end for
+      }//end if
+
+      for (int id = 0; id < scores.length; ++id)
+         if (scores[id] > 0)
+            result.add(new Match(this._items.get(id), scores[id]));
+      result.sort((a, b) -> a.score != b.score ? Double.compare(b.score, a.score)
+                                               : a.item.itemName.compareTo(b.item.itemName));
+      return result;
+   }//end search
+
+   private static void raise (double[] scores, int id, double score) {
+      if (score > scores[id])
+         scores[id] = score;
+   }//end raise
+
+   private static void insert (TrieNode root, String key, int id) {
+      TrieNode node = root;
+      for (int i = 0; i < key.length(); ++i) {
+         node = node.children.computeIfAbsent(key.charAt(i), k -> new TrieNode());
+         node.items.add(id);
+      }//end for
+   }//end insert
+
+   private static Set<Integer> lookup (TrieNode root, String prefix) {
+      TrieNode node = root;
+      for (int i = 0; i < prefix.length() && node != null; ++i)
+         node = node.children.get(prefix.charAt(i));
+      return node == null ? Collections.<Integer>emptySet() : node.items;
+   }//end lookup
+
+   private void addTrigrams (String word, int id) {
+      Set<String> grams = new LinkedHashSet<String>();
+      trigrams(word, true, grams);
+      for (String gram : grams)
+         this._trigrams.computeIfAbsent(gram, k -> new LinkedHashSet<Integer>()).add(id);
+   }//end addTrigrams
+
+   /**
+    * Splits a word into trigrams the way pg_trgm does: two blanks in front
+    * and one at the end.  The end blank is left off for search text, so a
+    * word that is still being typed matches as a prefix.
+    */
+   private static void trigrams (String word, boolean padEnd, Set<String> grams) {
+      String padded = "  " + word + (padEnd ? " " : "");
+      for (int i = 0; i + 3 <= padded.length(); ++i)
+         grams.add(padded.substring(i, i + 3));
+   }//end trigrams
+
+   private static List<String> words (String text) {
+      List<String> words = new ArrayList<String>();
+      for (String word : text.split("[^\\p{L}\\p{N}]+"))
+         if (!word.isEmpty())
+            words.add(word);
+      return words;
+   }//end words
+
+}//end MenuIndex
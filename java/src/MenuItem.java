@@ -0,0 +1,51 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds one row of the Menu table.  Instances are immutable and
+ * the char(n) padding is already stripped from the text columns.
+ *
+ */
+public class MenuItem {
+
+   public final String itemName;
+   public final String type;
+   public final double price;
+   // price as the database prints it, used for display
+   public final String priceText;
+   public final String description;
+   public final String imageURL;
+
+   public MenuItem (String itemName, String type, String priceText,
+                    String description, String imageURL) {
+      this.itemName = trim(itemName);
+      this.type = trim(type);
+      this.priceText = priceText;
+      this.price = Double.parseDouble(priceText);
+      this.description = trim(description);
+      this.imageURL = trim(imageURL);
+   }//end MenuItem
+
+   /**
+    * Strips the trailing blanks char(n) columns are padded with.  Before
+    * schema version 1 the text columns are char(n); on the varchar columns
+    * after it this changes nothing, signup rejects logins ending in blanks.
+    *
+    * @param value a column value, may be null
+    * @return the value without trailing blanks
+    */
+   public static String trim (String value) {
+      return value == null ? null : value.stripTrailing();
+   }//end trim
+
+}//end MenuItem
@@ -0,0 +1,95 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is an immutable copy of the whole Menu table together with
+ * the MenuVersion it was read at.  Cafe swaps in a new snapshot whenever
+ * the menu changes, readers never see a half updated menu.
+ *
+ */
+public class MenuSnapshot {
+
+   // snapshot used before the menu could be read
+   public static final MenuSnapshot EMPTY = new MenuSnapshot(-1, new ArrayList<MenuItem>());
+
+   private final long _version;
+   private final List<MenuItem> _items;
+   private final Map<String, MenuItem> _byName;
+   private final MenuIndex _index;
+
+   /**
+    * Creates a new snapshot
+    *
+    * @param version the MenuVersion the items were read at
+    * @param items the menu items in display order
+    */
+   public MenuSnapshot (long version, List<MenuItem> items) {
+      this._version = version;
+      this._items = Collections.unmodifiableList(new ArrayList<MenuItem>(items));
+      Map<String, MenuItem> byName = new LinkedHashMap<String, MenuItem>();
+      for (MenuItem item : items)
+         byName.put(item.itemName, item);
+      this._byName = Collections.unmodifiableMap(byName);
+      this._index = new MenuIndex(this._items);
+   }//end MenuSnapshot
+
+   /**
+    * @return the MenuVersion the snapshot was read at
+    */
+   public long version () {
+      return this._version;
+   }//end version
+
+   /**
+    * @return every menu item in display order
+    */
+   public List<MenuItem> items () {
+      return this._items;
+   }//end items
+
+   /**
+    * Looks up an item by name.  Like the char(50) comparison in the
+    * database, trailing blanks are not significant.
+    *
+    * @param itemName the item name
+    * @return the item or null if it is not on the menu
+    */
+   public MenuItem get (String itemName) {
+      return itemName == null ? null : this._byName.get(MenuItem.trim(itemName));
+   }//end get
+
+   /**
+    * @param type the item type, trailing blanks are not significant
+    * @return the items of that type in display order
+    */
+   public List<MenuItem> byType (String type) {
+      return type == null ? Collections.<MenuItem>emptyList() : this._index.byType(MenuItem.trim(type));
+   }//end byType
+
+   /**
+    * Searches names, types and descriptions, see MenuIndex.search
+    *
+    * @param text the search text
+    * @return the matches, best first
+    */
+   public List<MenuIndex.Match> search (String text) {
+      return this._index.search(text);
+   }//end search
+
+}//end MenuSnapshot
@@ -0,0 +1,615 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class brings an existing database up to the schema the
+ * application expects.  The version a database is at is kept in the
+ * schema_version table, create_tables.sql creates new databases at the
+ * latest version, and every migration newer than the recorded version is
+ * run in order by the migrate command.
+ *
+ * Migrations run while the application keeps serving: columns are
+ * rewritten in small batches, indexes are built concurrently, and the
+ * only exclusive locks are taken by short catalog changes that give up
+ * after cafe.migrate.lockTimeoutMillis and are retried.
+ *
+ */
+public class MigrationRunner {
+
+   /**
+    * One step from the previous schema version to the next
+    */
+   private interface Migration {
+      int version ();
+      String description ();
+      void apply (MigrationRunner runner) throws SQLException;
+   }//end Migration
+
+   // the migrations in order, the last one is the version create_tables.sql creates
+   private static final Migration[] MIGRATIONS = { new VariableWidthColumns(), new ItemQuantity(), new UnitPrice(), new RowVersion() };
+
+   // heap pages rewritten per batch, 8 KB each
+   private static final int BATCH_PAGES = Integer.getInteger("cafe.migrate.batchPages", 1000);
+
+   // pause between batches, to leave room for the regular load
+   private static final long PAUSE_MILLIS = Long.getLong("cafe.migrate.pauseMillis", 0L);
+
+   // how long a catalog change waits for its lock before it is retried
+   private static final long LOCK_TIMEOUT_MILLIS = Long.getLong("cafe.migrate.lockTimeoutMillis", 2000L);
+
+   // attempts of a catalog change that keeps timing out on its lock
+   private static final int LOCK_ATTEMPTS = 30;
+
+   private final Cafe _esql;
+   private Connection _conn;
+
+   public MigrationRunner (Cafe esql) {
+      this._esql = esql;
+   }//end MigrationRunner
+
+   /**
+    * Runs every migration newer than the version recorded in the database
+    *
+    * @throws java.sql.SQLException when a migration failed, it can be run again
+    */
+   public void migrate () throws SQLException {
+      this._conn = this._esql.getPool().openDedicated();
+      try {
+         execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                 "version integer PRIMARY KEY, description text NOT NULL, applied timestamp NOT NULL DEFAULT now())");
+         int current = currentVersion();
+         System.out.println("Schema version " + current);
+         for (Migration m : MIGRATIONS) {
+            if (m.version() <= current)
+               continue;
+            System.out.println("Migrating to version " + m.version() + ": " + m.description());
+            long start = System.nanoTime();
+            m.apply(this);
+            System.out.println(String.format("Version %d done in %.1f s", m.version(), (System.nanoTime() - start) / 1e9));
+         }//end for
+         System.out.println("Schema version " + currentVersion() + " is current");
+      } finally {
+         try {
+            this._conn.close();
+         } catch (SQLException e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end migrate
+
+   private int currentVersion () throws SQLException {
+      try (Statement stmt = this._conn.createStatement();
+           ResultSet rs = stmt.executeQuery("SELECT COALESCE(max(version), 0) FROM schema_version")) {
+         rs.next();
+         return rs.getInt(1);
+      }//end try
+   }//end currentVersion
+
+   /**
+    * Runs one statement, in its own transaction unless in catalogChange
+    */
+   private void execute (String sql) throws SQLException {
+      try (Statement stmt = this._conn.createStatement()) {
+         stmt.execute(sql);
+      }//end try
+   }//end execute
+
+   private int update (String sql) throws SQLException {
+      try (Statement stmt = this._conn.createStatement()) {
+         return stmt.executeUpdate(sql);
+      }//end try
+   }//end update
+
+   private long queryLong (String sql) throws SQLException {
+      try (Statement stmt = this._conn.createStatement();
+           ResultSet rs = stmt.executeQuery(sql)) {
+         return rs.next() ? rs.getLong(1) : 0;
+      }//end try
+   }//end queryLong
+
+   /**
+    * Runs statements in one transaction that gives up waiting for a lock
+    * after the lock timeout, so it never queues the application behind
+    * it for long, and tries again until it gets through
+    */
+   private void catalogChange (String... statements) throws SQLException {
+      for (int attempt = 1; ; ++attempt) {
+         this._conn.setAutoCommit(false);
+         try {
+            execute("SET LOCAL lock_timeout = " + LOCK_TIMEOUT_MILLIS);
+            for (String sql : statements)
+               execute(sql);
+            this._conn.commit();
+            return;
+         } catch (SQLException e) {
+            this._conn.rollback();
+            // 55P03 lock_not_available
+            if (!"55P03".equals(e.getSQLState()) || attempt == LOCK_ATTEMPTS)
+               throw e;
+            System.out.println("  lock not available, retrying (" + attempt + ")");
+         } finally {
+            this._conn.setAutoCommit(true);
+         }//end try
+      }//end for
+   }//end catalogChange
+
+   /**
+    * Runs an update over the whole table a range of heap pages at a time,
+    * each range in its own transaction.  Rows written after the pages
+    * were counted are left alone, the caller takes care of them.
+    *
+    * @param table the table
+    * @param set the SET list of the update
+    */
+   private void inBatches (String table, String set) throws SQLException {
+      inBatches(table, set, "", "");
+   }//end inBatches
+
+   /**
+    * @param table the table
+    * @param set the SET list of the update
+    * @param from a FROM list joined to the table, or ""
+    * @param where the join condition, "" or starting with AND
+    */
+   private void inBatches (String table, String set, String from, String where) throws SQLException {
+      long pages = queryLong("SELECT pg_relation_size('" + table + "') / current_setting('block_size')::int");
+      long rows = 0;
+      long start = System.nanoTime();
+      for (long page = 0; page < pages; page += BATCH_PAGES) {
+         // a TID range scan reads only these pages (PostgreSQL 14 and later)
+         rows += update("UPDATE " + table + " SET " + set + (from.isEmpty() ? "" : " FROM " + from) +
+                        " WHERE " + table + ".ctid >= '(" + page + ",0)'::tid AND " +
+                        table + ".ctid < '(" + (page + BATCH_PAGES) + ",0)'::tid " + where);
+         System.out.print(String.format("\r  %s: %,d of %,d pages, %,d rows", table,
+                                        Math.min(pages, page + BATCH_PAGES), pages, rows));
+         if (PAUSE_MILLIS > 0) {
+            try {
+               Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("interrupted");
+            }//end try
+         }//end if
+      }//end for
+      System.out.println(String.format("\r  %s: %,d pages, %,d rows in %.1f s", table, pages, rows,
+                                       (System.nanoTime() - start) / 1e9));
+   }//end inBatches
+
+   private static String mb (long bytes) {
+      return String.format("%,.1f MB", bytes / 1048576.0);
+   }//end mb
+
+   /**
+    * Version 1: the fixed width char(n) columns become varchar(n), which
+    * are stored without padding, and the real prices and totals become
+    * numeric with exact cents.
+    *
+    * Each column is copied into a new column, kept in sync by a
+    * trigger for rows written meanwhile, and filled in batches.  The
+    * indexes and constraints are built on the new columns concurrently,
+    * then one short transaction drops the old columns and renames the new
+    * ones.  The renamed columns move to the end of their table; Cafe
+    * names the columns it reads, and its driver prepares again the
+    * statements a column change invalidates (autosave=conservative), so
+    * running sessions neither see the new columns nor fail.  Finally
+    * every row is rewritten once more in batches, so the dropped values
+    * leave the heap, and the tables are vacuumed.
+    */
+   private static class VariableWidthColumns implements Migration {
+
+      /**
+       * A column and its new type
+       */
+      private static class Column {
+         final String table;
+         final String name;
+         final String type;
+         final boolean notNull;
+
+         Column (String table, String name, String type, boolean notNull) {
+            this.table = table;
+            this.name = name;
+            this.type = type;
+            this.notNull = notNull;
+         }//end Column
+
+         String next () {
+            return this.name + "_v2";
+         }//end next
+      }//end Column
+
+      /**
+       * An index or constraint rebuilt on the new columns
+       */
+      private static class Index {
+         final String table;
+         final String name;
+         final String constraint;
+         final String definition;
+
+         /**
+          * @param constraint PRIMARY KEY, UNIQUE, or null for a plain index
+          * @param definition the index columns, over the new columns
+          */
+         Index (String table, String name, String constraint, String definition) {
+            this.table = table;
+            this.name = name;
+            this.constraint = constraint;
+            this.definition = definition;
+         }//end Index
+      }//end Index
+
+      private static final String[] TABLES = { "Users", "Menu", "Orders", "ItemStatus" };
+
+      private static final Column[] COLUMNS = {
+         new Column("Users", "login", "varchar(50)", true),
+         new Column("Users", "phoneNum", "varchar(16)", false),
+         new Column("Users", "password", "varchar(50)", true),
+         new Column("Users", "favItems", "varchar(400)", false),
+         new Column("Users", "type", "varchar(8)", true),
+         new Column("Menu", "itemName", "varchar(50)", true),
+         new Column("Menu", "type", "varchar(20)", true),
+         new Column("Menu", "price", "numeric(8,2)", true),
+         new Column("Menu", "description", "varchar(400)", false),
+         new Column("Menu", "imageURL", "varchar(256)", false),
+         new Column("Orders", "login", "varchar(50)", false),
+         new Column("Orders", "total", "numeric(10,2)", true),
+         new Column("ItemStatus", "itemName", "varchar(50)", true),
+         new Column("ItemStatus", "status", "varchar(20)", false),
+         new Column("ItemStatus", "comments", "varchar(130)", false),
+      };
+
+      private static final Index[] INDEXES = {
+         new Index("Users", "users_pkey", "PRIMARY KEY", "UNIQUE INDEX users_pkey_v2 ON Users (login_v2)"),
+         new Index("Users", "users_login_key", "UNIQUE", "UNIQUE INDEX users_login_key_v2 ON Users (login_v2)"),
+         new Index("Users", "users_phonenum_key", "UNIQUE", "UNIQUE INDEX users_phonenum_key_v2 ON Users (phoneNum_v2)"),
+         new Index("Menu", "menu_pkey", "PRIMARY KEY", "UNIQUE INDEX menu_pkey_v2 ON Menu (itemName_v2)"),
+         new Index("Menu", "menu_itemname_key", "UNIQUE", "UNIQUE INDEX menu_itemname_key_v2 ON Menu (itemName_v2)"),
+         new Index("Orders", "index4", null, "INDEX index4_v2 ON Orders (login_v2, timeStampRecieved DESC)"),
+         new Index("ItemStatus", "itemstatus_pkey", "PRIMARY KEY", "UNIQUE INDEX itemstatus_pkey_v2 ON ItemStatus (orderid, itemName_v2)"),
+      };
+
+      // a column the final rewrite sets to itself, no trigger watches it
+      private static final Map<String, String> UNWATCHED = new LinkedHashMap<String, String>();
+      static {
+         UNWATCHED.put("Users", "type");
+         UNWATCHED.put("Menu", "type");
+         UNWATCHED.put("Orders", "paid");
+         UNWATCHED.put("ItemStatus", "lastUpdated");
+      }//end static
+
+      @Override
+      public int version () {
+         return 1;
+      }//end version
+
+      @Override
+      public String description () {
+         return "varchar instead of char(n), numeric cents instead of real";
+      }//end description
+
+      @Override
+      public void apply (MigrationRunner r) throws SQLException {
+         Map<String, Long> before = new LinkedHashMap<String, Long>();
+         for (String table : TABLES)
+            before.put(table, r.queryLong("SELECT pg_total_relation_size('" + table + "')"));
+
+         // 1. the new columns, and triggers that fill them for every row written from now on
+         for (String table : TABLES) {
+            List<String> add = new ArrayList<String>();
+            StringBuilder sync = new StringBuilder();
+            for (Column c : columns(table)) {
+               add.add("ADD COLUMN IF NOT EXISTS " + c.next() + " " + c.type);
+               sync.append("NEW.").append(c.next()).append(" := NEW.").append(c.name).append("; ");
+            }//end for
+            r.catalogChange(
+               "CREATE OR REPLACE FUNCTION migrate_v1_" + table + "() RETURNS trigger AS $$ BEGIN " + sync +
+               "RETURN NEW; END; $$ LANGUAGE plpgsql",
+               "ALTER TABLE " + table + " " + String.join(", ", add),
+               "DROP TRIGGER IF EXISTS migrate_v1 ON " + table,
+               "CREATE TRIGGER migrate_v1 BEFORE INSERT OR UPDATE ON " + table +
+               " FOR EACH ROW EXECUTE PROCEDURE migrate_v1_" + table + "()");
+         }//end for
+
+         // 2. the rows written before the triggers, in batches
+         System.out.println("Copying the columns");
+         for (String table : TABLES) {
+            List<String> set = new ArrayList<String>();
+            for (Column c : columns(table))
+               set.add(c.next() + " = CAST(" + c.name + " AS " + c.type + ")");
+            r.inBatches(table, String.join(", ", set));
+         }//end for
+
+         // 3. NOT NULL proven by a check validated without a lock, so setting it later does not scan
+         for (Column c : COLUMNS) {
+            if (!c.notNull)
+               continue;
+            String check = c.table.toLowerCase() + "_" + c.next().toLowerCase() + "_not_null";
+            r.catalogChange("ALTER TABLE " + c.table + " DROP CONSTRAINT IF EXISTS " + check,
+                            "ALTER TABLE " + c.table + " ADD CONSTRAINT " + check +
+                            " CHECK (" + c.next() + " IS NOT NULL) NOT VALID");
+            r.execute("ALTER TABLE " + c.table + " VALIDATE CONSTRAINT " + check);
+         }//end for
+
+         // 4. the indexes, built concurrently; a failed build leaves an invalid index, so start over
+         System.out.println("Building the indexes");
+         for (Index index : INDEXES) {
+            String name = index.name + "_v2";
+            r.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+            long start = System.nanoTime();
+            r.execute("CREATE " + index.definition.replaceFirst("INDEX ", "INDEX CONCURRENTLY "));
+            System.out.println(String.format("  %s in %.1f s", name, (System.nanoTime() - start) / 1e9));
+         }//end for
+
+         // the column data, old and new, before the old values are dropped
+         System.out.println("Column data");
+         long oldBytes = 0;
+         long newBytes = 0;
+         for (String table : TABLES) {
+            // one scan per table
+            List<Column> columns = columns(table);
+            List<String> sums = new ArrayList<String>();
+            for (Column c : columns) {
+               sums.add("COALESCE(sum(pg_column_size(" + c.name + ")), 0)");
+               sums.add("COALESCE(sum(pg_column_size(" + c.next() + ")), 0)");
+            }//end for
+            try (Statement stmt = r._conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT " + String.join(", ", sums) + " FROM " + table)) {
+               rs.next();
+               for (int i = 0; i < columns.size(); ++i) {
+                  long o = rs.getLong(2 * i + 1);
+                  long n = rs.getLong(2 * i + 2);
+                  System.out.println(String.format("  %-22s %12s -> %12s", table + "." + columns.get(i).name, mb(o), mb(n)));
+                  oldBytes += o;
+                  newBytes += n;
+               }//end for
+            }//end try
+         }//end for
+
+         // 5. the swap, one short transaction
+         System.out.println("Swapping the columns");
+         List<String> swap = new ArrayList<String>();
+         for (String table : TABLES)
+            swap.add("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+         for (String table : TABLES) {
+            swap.add("DROP TRIGGER migrate_v1 ON " + table);
+            swap.add("DROP FUNCTION migrate_v1_" + table + "()");
+         }//end for
+         // depend on columns being dropped, put back below; older databases may lack either
+         boolean foreignKey = r.queryLong("SELECT count(*) FROM pg_constraint WHERE conname = 'itemstatus_itemname_fkey'" +
+                                          " AND conrelid = 'itemstatus'::regclass") > 0;
+         boolean notify = r.queryLong("SELECT count(*) FROM pg_trigger WHERE tgname = 'itemstatus_notify'" +
+                                      " AND tgrelid = 'itemstatus'::regclass") > 0;
+         swap.add("ALTER TABLE ItemStatus DROP CONSTRAINT IF EXISTS itemstatus_itemname_fkey");
+         swap.add("DROP TRIGGER IF EXISTS itemstatus_notify ON ItemStatus");
+         for (Column c : COLUMNS)
+            swap.add("ALTER TABLE " + c.table + " DROP COLUMN " + c.name);
+         for (Column c : COLUMNS) {
+            swap.add("ALTER TABLE " + c.table + " RENAME COLUMN " + c.next() + " TO " + c.name);
+            if (c.notNull) {
+               swap.add("ALTER TABLE " + c.table + " ALTER COLUMN " + c.name + " SET NOT NULL");
+               swap.add("ALTER TABLE " + c.table + " DROP CONSTRAINT " + c.table.toLowerCase() + "_" + c.next().toLowerCase() + "_not_null");
+            }//end if
+         }//end for
+         for (Index index : INDEXES) {
+            if (index.constraint == null)
+               swap.add("ALTER INDEX " + index.name + "_v2 RENAME TO " + index.name);
+            else
+               swap.add("ALTER TABLE " + index.table + " ADD CONSTRAINT " + index.name + " " + index.constraint +
+                        " USING INDEX " + index.name + "_v2");
+         }//end for
+         if (foreignKey)
+            swap.add("ALTER TABLE ItemStatus ADD CONSTRAINT itemstatus_itemname_fkey " +
+                     "FOREIGN KEY (itemName) REFERENCES Menu(itemName) NOT VALID");
+         if (notify)
+            swap.add("CREATE TRIGGER itemstatus_notify AFTER INSERT OR DELETE OR UPDATE OF status ON ItemStatus " +
+                     "FOR EACH ROW EXECUTE PROCEDURE itemstatus_notify()");
+         swap.add("INSERT INTO schema_version (version, description) VALUES (1, '" + description() + "')");
+         r.catalogChange(swap.toArray(new String[0]));
+         if (foreignKey)
+            r.execute("ALTER TABLE ItemStatus VALIDATE CONSTRAINT itemstatus_itemname_fkey");
+
+         // 6. rewrite every row once more so the dropped values leave the heap
+         System.out.println("Compacting");
+         for (String table : TABLES) {
+            String column = UNWATCHED.get(table);
+            r.inBatches(table, column + " = " + column);
+            r.execute("VACUUM (ANALYZE) " + table);
+         }//end for
+
+         System.out.println(String.format("Column data %s -> %s, %s reclaimed", mb(oldBytes), mb(newBytes),
+                                          mb(oldBytes - newBytes)));
+         for (String table : TABLES) {
+            long after = r.queryLong("SELECT pg_total_relation_size('" + table + "')");
+            System.out.println(String.format("  %-12s %12s -> %12s", table, mb(before.get(table)), mb(after)));
+         }//end for
+         System.out.println("The free space inside the tables is reused by new rows, " +
+                            "VACUUM FULL returns it to the system but locks the table while it runs");
+      }//end apply
+
+      private static List<Column> columns (String table) {
+         List<Column> list = new ArrayList<Column>();
+         for (Column c : COLUMNS)
+            if (c.table.equals(table))
+               list.add(c);
+         return list;
+      }//end columns
+   }//end VariableWidthColumns
+
+   /**
+    * Version 2: ItemStatus gets a quantity, so an order holds several of
+    * an item in one row.  A column with a constant default is added
+    * without rewriting the table, and the total trigger of triggers.sql
+    * is replaced in the same transaction, so no item change is counted
+    * with the old trigger against the new column.
+    */
+   private static class ItemQuantity implements Migration {
+
+      @Override
+      public int version () {
+         return 2;
+      }//end version
+
+      @Override
+      public String description () {
+         return "quantity per order item";
+      }//end description
+
+      @Override
+      public void apply (MigrationRunner r) throws SQLException {
+         r.catalogChange(
+            "ALTER TABLE ItemStatus ADD COLUMN quantity integer NOT NULL DEFAULT 1",
+            "ALTER TABLE ItemStatus ADD CONSTRAINT itemstatus_quantity_check CHECK (quantity > 0) NOT VALID",
+            // as in triggers.sql
+            "CREATE OR REPLACE FUNCTION itemstatus_total() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "IF (TG_OP = 'INSERT') THEN " +
+            "UPDATE Orders SET total = total + NEW.quantity * COALESCE((SELECT M.price FROM Menu M WHERE M.itemName = NEW.itemName), 0) " +
+            "WHERE orderid = NEW.orderid; " +
+            "RETURN NEW; " +
+            "ELSIF (TG_OP = 'DELETE') THEN " +
+            "UPDATE Orders SET total = total - OLD.quantity * COALESCE((SELECT M.price FROM Menu M WHERE M.itemName = OLD.itemName), 0) " +
+            "WHERE orderid = OLD.orderid; " +
+            "RETURN OLD; " +
+            "ELSIF (TG_OP = 'UPDATE' AND NEW.quantity <> OLD.quantity) THEN " +
+            "UPDATE Orders SET total = total + (NEW.quantity - OLD.quantity) * COALESCE((SELECT M.price FROM Menu M WHERE M.itemName = NEW.itemName), 0) " +
+            "WHERE orderid = NEW.orderid; " +
+            "RETURN NEW; " +
+            "END IF; " +
+            "RETURN NULL; " +
+            "END; $$ LANGUAGE plpgsql",
+            "DROP TRIGGER IF EXISTS itemstatus_total ON ItemStatus",
+            "CREATE TRIGGER itemstatus_total AFTER INSERT OR DELETE OR UPDATE OF quantity ON ItemStatus " +
+            "FOR EACH ROW EXECUTE PROCEDURE itemstatus_total()",
+            "INSERT INTO schema_version (version, description) VALUES (2, '" + description() + "')");
+         // every row has the default, the check is proven without blocking writes
+         r.execute("ALTER TABLE ItemStatus VALIDATE CONSTRAINT itemstatus_quantity_check");
+      }//end apply
+   }//end ItemQuantity
+
+   /**
+    * Version 3: ItemStatus keeps the unit price an item was ordered at,
+    * and the total trigger of triggers.sql adds and subtracts that price
+    * instead of reading Menu.  The items already ordered get the current
+    * menu price, the price they were ordered at is not known.
+    */
+   private static class UnitPrice implements Migration {
+
+      @Override
+      public int version () {
+         return 3;
+      }//end version
+
+      @Override
+      public String description () {
+         return "unit price per order item";
+      }//end description
+
+      @Override
+      public void apply (MigrationRunner r) throws SQLException {
+         // items inserted from now on are priced by the trigger, until the application sends the price
+         r.catalogChange(
+            "ALTER TABLE ItemStatus ADD COLUMN IF NOT EXISTS unitPrice numeric(8,2)",
+            // as in triggers.sql
+            "CREATE OR REPLACE FUNCTION itemstatus_price() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "IF (NEW.unitPrice IS NULL) THEN " +
+            "SELECT M.price INTO NEW.unitPrice FROM Menu M WHERE M.itemName = NEW.itemName; " +
+            "END IF; " +
+            "RETURN NEW; " +
+            "END; $$ LANGUAGE plpgsql",
+            "DROP TRIGGER IF EXISTS itemstatus_price ON ItemStatus",
+            "CREATE TRIGGER itemstatus_price BEFORE INSERT ON ItemStatus " +
+            "FOR EACH ROW EXECUTE PROCEDURE itemstatus_price()");
+
+         System.out.println("Pricing the ordered items");
+         r.inBatches("ItemStatus", "unitPrice = M.price", "Menu M",
+                     "AND M.itemName = ItemStatus.itemName AND ItemStatus.unitPrice IS NULL");
+
+         r.catalogChange("ALTER TABLE ItemStatus DROP CONSTRAINT IF EXISTS itemstatus_unitprice_not_null",
+                         "ALTER TABLE ItemStatus ADD CONSTRAINT itemstatus_unitprice_not_null " +
+                         "CHECK (unitPrice IS NOT NULL) NOT VALID");
+         r.execute("ALTER TABLE ItemStatus VALIDATE CONSTRAINT itemstatus_unitprice_not_null");
+
+         // the price is known on every item now, the total trigger stops reading Menu
+         r.catalogChange(
+            "ALTER TABLE ItemStatus ALTER COLUMN unitPrice SET NOT NULL",
+            "ALTER TABLE ItemStatus DROP CONSTRAINT itemstatus_unitprice_not_null",
+            // as in triggers.sql
+            "CREATE OR REPLACE FUNCTION itemstatus_total() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "IF (TG_OP = 'INSERT') THEN " +
+            "UPDATE Orders SET total = total + NEW.quantity * NEW.unitPrice WHERE orderid = NEW.orderid; " +
+            "RETURN NEW; " +
+            "ELSIF (TG_OP = 'DELETE') THEN " +
+            "UPDATE Orders SET total = total - OLD.quantity * OLD.unitPrice WHERE orderid = OLD.orderid; " +
+            "RETURN OLD; " +
+            "ELSIF (TG_OP = 'UPDATE' AND NEW.quantity <> OLD.quantity) THEN " +
+            "UPDATE Orders SET total = total + (NEW.quantity - OLD.quantity) * NEW.unitPrice WHERE orderid = NEW.orderid; " +
+            "RETURN NEW; " +
+            "END IF; " +
+            "RETURN NULL; " +
+            "END; $$ LANGUAGE plpgsql",
+            "INSERT INTO schema_version (version, description) VALUES (3, '" + description() + "')");
+      }//end apply
+   }//end UnitPrice
+
+   /**
+    * Version 4: Orders and ItemStatus get a row version, bumped by the
+    * row_version trigger of triggers.sql on every update, for the
+    * compare-and-set updates of Cafe.  The columns have a constant
+    * default, so neither table is rewritten.
+    */
+   private static class RowVersion implements Migration {
+
+      @Override
+      public int version () {
+         return 4;
+      }//end version
+
+      @Override
+      public String description () {
+         return "row versions for optimistic updates";
+      }//end description
+
+      @Override
+      public void apply (MigrationRunner r) throws SQLException {
+         r.catalogChange(
+            "ALTER TABLE Orders ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0",
+            "ALTER TABLE ItemStatus ADD COLUMN IF NOT EXISTS version integer NOT NULL DEFAULT 0",
+            // as in triggers.sql
+            "CREATE OR REPLACE FUNCTION row_version() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "NEW.version := OLD.version + 1; " +
+            "RETURN NEW; " +
+            "END; $$ LANGUAGE plpgsql",
+            "DROP TRIGGER IF EXISTS orders_version ON Orders",
+            "CREATE TRIGGER orders_version BEFORE UPDATE ON Orders " +
+            "FOR EACH ROW EXECUTE PROCEDURE row_version()",
+            "DROP TRIGGER IF EXISTS itemstatus_version ON ItemStatus",
+            "CREATE TRIGGER itemstatus_version BEFORE UPDATE ON ItemStatus " +
+            "FOR EACH ROW EXECUTE PROCEDURE row_version()",
+            "INSERT INTO schema_version (version, description) VALUES (4, '" + description() + "')");
+      }//end apply
+   }//end RowVersion
+
+}//end MigrationRunner
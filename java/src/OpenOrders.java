@@ -0,0 +1,144 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * This class keeps the unpaid orders of the last 24 hours in memory,
+ * ordered by the time they were received, so ViewCurrentOrder does not
+ * scan the day's orders every time an employee looks.  Cafe seeds it from
+ * one query (served by the partial index on unpaid orders) and keeps it up
+ * to date when orders are placed, paid or change their items.  Orders
+ * older than the window are dropped as they are read.
+ *
+ * Orders written by other processes only show up at the next seed, which
+ * Cafe repeats every cafe.openOrders.refreshMillis.
+ *
+ */
+public class OpenOrders {
+
+   // how long an unpaid order counts as current
+   public static final long WINDOW_MILLIS = 24L * 60 * 60 * 1000;
+
+   /**
+    * One unpaid order
+    */
+   public static class Order {
+      public final int orderid;
+      public final String login;
+      public final Timestamp timeStampRecieved;
+      private volatile double _total;
+
+      public Order (int orderid, String login, Timestamp timeStampRecieved, double total) {
+         this.orderid = orderid;
+         this.login = login;
+         this.timeStampRecieved = timeStampRecieved;
+         this._total = total;
+      }//end Order
+
+      /**
+       * @return the order total as last seen
+       */
+      public double total () {
+         return this._total;
+      }//end total
+   }//end Order
+
+   private static final Comparator<Order> BY_TIME =
+      Comparator.<Order>comparingLong(o -> o.timeStampRecieved.getTime()).thenComparingInt(o -> o.orderid);
+
+   private final NavigableSet<Order> _byTime = new ConcurrentSkipListSet<Order>(BY_TIME);
+   private final Map<Integer, Order> _byId = new ConcurrentHashMap<Integer, Order>();
+
+   /**
+    * Replaces the contents with the unpaid orders read from the database
+    *
+    * @param orders every unpaid order of the window
+    */
+   public synchronized void seed (Collection<Order> orders) {
+      this._byTime.clear();
+      this._byId.clear();
+      for (Order order : orders)
+         add(order);
+   }//end seed
+
+   /**
+    * Adds a new, or again unpaid, order
+    *
+    * @param order the order
+    */
+   public synchronized void add (Order order) {
+      Order previous = this._byId.put(order.orderid, order);
+      if (previous != null)
+         this._byTime.remove(previous);
+      this._byTime.add(order);
+   }//end add
+
+   /**
+    * Removes an order that was paid
+    *
+    * @param orderid the order id
+    */
+   public synchronized void remove (int orderid) {
+      Order order = this._byId.remove(orderid);
+      if (order != null)
+         this._byTime.remove(order);
+   }//end remove
+
+   /**
+    * Adds to the total of an open order after one of its items was added
+    * or removed, orders that are not open are ignored
+    *
+    * @param orderid the order id
+    * @param amount the price added, negative when an item was removed
+    */
+   public void addToTotal (int orderid, double amount) {
+      Order order = this._byId.get(orderid);
+      if (order != null) {
+         synchronized (order) {
+            order._total += amount;
+         }//end synchronized
+      }//end if
+   }//end addToTotal
+
+   /**
+    * @param now the current time in milliseconds
+    * @return the unpaid orders received within the window, oldest first
+    */
+   public List<Order> current (long now) {
+      expire(now);
+      return new ArrayList<Order>(this._byTime);
+   }//end current
+
+   /**
+    * @return the number of orders held
+    */
+   public int size () {
+      return this._byId.size();
+   }//end size
+
+   private synchronized void expire (long now) {
+      long oldest = now - WINDOW_MILLIS;
+      while (!this._byTime.isEmpty() && this._byTime.first().timeStampRecieved.getTime() < oldest)
+         this._byId.remove(this._byTime.pollFirst().orderid);
+   }//end expire
+
+}//end OpenOrders
@@ -0,0 +1,193 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class listens on the order_status channel, which the ItemStatus
+ * trigger notifies whenever an item is added to an order, removed from it
+ * or changes status, and hands every change to the sessions subscribed to
+ * that order (or to all orders).  One dedicated connection does the
+ * LISTEN for the whole process, so watching an order costs the database
+ * nothing beyond the change itself.
+ *
+ * Listeners are called on the feed thread and must not block; see
+ * Cafe.WatchOrder for a listener that hands the change to its session.
+ *
+ */
+public class OrderFeed {
+
+   private static final String CHANNEL = "order_status";
+
+   // how long one wait for notifications lasts
+   private static final int POLL_MILLIS = 1000;
+
+   // wait before reconnecting after the connection failed
+   private static final long RETRY_MILLIS = 5000L;
+
+   /**
+    * One change of an item of an order
+    */
+   public static class Change {
+      public final int orderid;
+      public final String operation;
+      public final String status;
+      public final String itemName;
+
+      private Change (int orderid, String operation, String status, String itemName) {
+         this.orderid = orderid;
+         this.operation = operation;
+         this.status = status;
+         this.itemName = itemName;
+      }//end Change
+
+      @Override
+      public String toString () {
+         switch (this.operation) {
+            case "INSERT": return "order " + this.orderid + ": " + this.itemName + " added (" + this.status + ")";
+            case "DELETE": return "order " + this.orderid + ": " + this.itemName + " removed";
+            default: return "order " + this.orderid + ": " + this.itemName + " is now " + this.status;
+         }//end switch
+      }//end toString
+   }//end Change
+
+   /**
+    * Receives the changes of the orders it subscribed to
+    */
+   public interface Listener {
+      void changed (Change change);
+   }//end Listener
+
+   private final ConnectionPool _pool;
+   private final Map<Integer, List<Listener>> _byOrder = new ConcurrentHashMap<Integer, List<Listener>>();
+   private final List<Listener> _all = new CopyOnWriteArrayList<Listener>();
+   private final Thread _thread;
+   private volatile boolean _running = true;
+
+   /**
+    * Starts listening
+    *
+    * @param pool where the dedicated connection is opened
+    */
+   public OrderFeed (ConnectionPool pool) {
+      this._pool = pool;
+      this._thread = new Thread(this::listen, "cafe-order-feed");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end OrderFeed
+
+   /**
+    * @param orderid the order to watch
+    * @param listener called with every change of that order
+    */
+   public void subscribe (int orderid, Listener listener) {
+      this._byOrder.computeIfAbsent(orderid, k -> new CopyOnWriteArrayList<Listener>()).add(listener);
+   }//end subscribe
+
+   /**
+    * @param listener called with every change of every order
+    */
+   public void subscribeAll (Listener listener) {
+      this._all.add(listener);
+   }//end subscribeAll
+
+   /**
+    * Stops calling the listener
+    *
+    * @param listener a listener given to subscribe or subscribeAll
+    */
+   public void unsubscribe (Listener listener) {
+      this._all.remove(listener);
+      for (Map.Entry<Integer, List<Listener>> e : this._byOrder.entrySet()) {
+         List<Listener> listeners = e.getValue();
+         if (listeners.remove(listener) && listeners.isEmpty())
+            this._byOrder.remove(e.getKey(), listeners);
+      }//end for
+   }//end unsubscribe
+
+   /**
+    * Stops listening
+    */
+   public void close () {
+      this._running = false;
+      this._thread.interrupt();
+   }//end close
+
+   private void listen () {
+      while (this._running) {
+         try (Connection conn = this._pool.openDedicated()) {
+            try (Statement stmt = conn.createStatement()) {
+               stmt.execute("LISTEN " + CHANNEL);
+            }//end try
+            // the driver's notification API is only on the runtime classpath
+            Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+            Object pg = conn.unwrap(pgConnection);
+            Method getNotifications = pgConnection.getMethod("getNotifications", int.class);
+            Method getParameter = Class.forName("org.postgresql.PGNotification").getMethod("getParameter");
+            while (this._running) {
+               Object[] notifications = (Object[]) getNotifications.invoke(pg, POLL_MILLIS);
+               if (notifications == null)
+                  continue;
+               for (Object n : notifications)
+                  dispatch((String) getParameter.invoke(n));
+            }//end while
+         } catch (ReflectiveOperationException | SQLException e) {
+            if (!this._running)
+               return;
+            Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+            System.err.println("Order feed: " + cause.getMessage() + ", retrying in " + RETRY_MILLIS + " ms");
+            try {
+               Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException ie) {
+               return;
+            }//end try
+         }//end try
+      }//end while
+   }//end listen
+
+   private void dispatch (String payload) {
+      // orderid;operation;status;itemName, the item name may contain ';'
+      String[] fields = payload.split(";", 4);
+      if (fields.length < 4)
+         return;
+      Change change;
+      try {
+         change = new Change(Integer.parseInt(fields[0]), fields[1], fields[2], fields[3]);
+      } catch (NumberFormatException e) {
+         return;
+      }//end try
+      List<Listener> listeners = this._byOrder.get(change.orderid);
+      if (listeners != null)
+         for (Listener l : listeners)
+            deliver(l, change);
+      for (Listener l : this._all)
+         deliver(l, change);
+   }//end dispatch
+
+   private static void deliver (Listener listener, Change change) {
+      try {
+         listener.changed(change);
+      } catch (RuntimeException e) {
+         System.err.println("Order feed listener failed: " + e.getMessage());
+      }//end try
+   }//end deliver
+
+}//end OrderFeed
@@ -0,0 +1,36 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds the editable part of one ItemStatus row as it was
+ * read, together with the row version.  Cafe only writes a change back
+ * if the row still has that version, see Cafe.updateItemStatus.
+ *
+ */
+public class OrderItem {
+
+   public final int orderid;
+   public final String itemName;
+   public final String status;
+   public final String comments;
+   public final int version;
+
+   public OrderItem (int orderid, String itemName, String status, String comments, int version) {
+      this.orderid = orderid;
+      this.itemName = MenuItem.trim(itemName);
+      this.status = MenuItem.trim(status);
+      this.comments = MenuItem.trim(comments);
+      this.version = version;
+   }//end OrderItem
+
+}//end OrderItem
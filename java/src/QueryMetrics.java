@@ -0,0 +1,278 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * This class counts every statement Cafe sends to the database.  For each
+ * call site (the method and line outside the execute methods that issued
+ * the statement) it keeps a latency histogram and counts the calls, rows
+ * and errors.  For each user operation, from one menu choice to the next,
+ * it counts the round trips and the time spent in the database, named
+ * after the menu flow that ran (AddOrder, deleteItem, ...).
+ *
+ * Recording costs a short stack walk and a few atomic adds per statement,
+ * which is small next to a round trip.  -Dcafe.metrics=false turns it off.
+ * The numbers are published over JMX as cafe:type=QueryMetrics.
+ *
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+   private static final boolean ENABLED = !"false".equals(System.getProperty("cafe.metrics"));
+
+   // Cafe methods that only pass a statement on, never a call site
+   private static final Set<String> INTERNAL = new HashSet<String>(Arrays.asList(
+      "withConnection", "executeUpdate", "executeQuery", "executeQueryGetResult", "executeQueryCount",
+      "query", "queryForObject", "first", "prepare", "printResult", "collectResult"));
+
+   private static final StackWalker WALKER = StackWalker.getInstance();
+
+   /**
+    * The statements of one call site
+    */
+   private static class Site {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final LongAdder rows = new LongAdder();
+      final LongAdder errors = new LongAdder();
+   }//end Site
+
+   /**
+    * The user operations of one menu flow
+    */
+   private static class Operation {
+      final LongAdder count = new LongAdder();
+      final LongAdder roundTrips = new LongAdder();
+      final AtomicLong maxRoundTrips = new AtomicLong();
+      final LatencyHistogram databaseTime = new LatencyHistogram();
+   }//end Operation
+
+   /**
+    * What the calling thread is doing right now
+    */
+   private static class State {
+      long rows = 0;
+      boolean inOperation = false;
+      QueryMetrics metrics = null;
+      String operation = null;
+      int roundTrips = 0;
+      long nanos = 0;
+   }//end State
+
+   private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+   private final Map<String, Site> _sites = new ConcurrentHashMap<String, Site>();
+   private final Map<String, Operation> _operations = new ConcurrentHashMap<String, Operation>();
+   private final LongAdder _statements = new LongAdder();
+   private final LongAdder _rows = new LongAdder();
+   private final LongAdder _errors = new LongAdder();
+
+   /**
+    * Publishes these metrics over JMX, a failure is only reported
+    */
+   public void register () {
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("cafe:type=QueryMetrics"));
+      } catch (Exception e) {
+         System.err.println("Warning - Unable to register the query metrics: " + e.getMessage());
+      }//end try
+   }//end register
+
+   /**
+    * @return the start time of a statement, to pass to end()
+    */
+   public long start () {
+      if (ENABLED)
+         STATE.get().rows = 0;
+      return System.nanoTime();
+   }//end start
+
+   /**
+    * Records a statement that started at start()
+    *
+    * @param start the value start() returned
+    * @param failed whether the statement threw
+    * @return how long the statement took in nanoseconds
+    */
+   public long end (long start, boolean failed) {
+      long nanos = System.nanoTime() - start;
+      if (!ENABLED)
+         return nanos;
+      State state = STATE.get();
+      String[] where = where(state.inOperation && state.operation == null);
+      Site site = this._sites.computeIfAbsent(where[0], k -> new Site());
+      site.latency.record(nanos);
+      site.rows.add(state.rows);
+      this._statements.increment();
+      this._rows.add(state.rows);
+      if (failed) {
+         site.errors.increment();
+         this._errors.increment();
+      }//end if
+      if (state.inOperation) {
+         if (state.operation == null)
+            state.operation = where[1];
+         state.metrics = this;
+         ++state.roundTrips;
+         state.nanos += nanos;
+      }//end if
+      state.rows = 0;
+      return nanos;
+   }//end end
+
+   /**
+    * Counts rows read or written by the statement running on this thread
+    *
+    * @param rows the number of rows
+    */
+   public static void rows (long rows) {
+      if (ENABLED)
+         STATE.get().rows += rows;
+   }//end rows
+
+   /**
+    * Ends the user operation of the calling thread, if any, and starts
+    * the next one.  Called whenever a menu choice is read.
+    */
+   public static void nextOperation () {
+      if (!ENABLED)
+         return;
+      endOperation();
+      STATE.get().inOperation = true;
+   }//end nextOperation
+
+   /**
+    * Ends the user operation of the calling thread.  Operations that sent
+    * no statements are not counted.
+    */
+   public static void endOperation () {
+      if (!ENABLED)
+         return;
+      State state = STATE.get();
+      if (state.inOperation && state.metrics != null && state.operation != null) {
+         Operation op = state.metrics._operations.computeIfAbsent(state.operation, k -> new Operation());
+         op.count.increment();
+         op.roundTrips.add(state.roundTrips);
+         op.databaseTime.record(state.nanos);
+         long max;
+         while (state.roundTrips > (max = op.maxRoundTrips.get()) && !op.maxRoundTrips.compareAndSet(max, state.roundTrips))
+            ;
+      }//end if
+      state.inOperation = false;
+      state.metrics = null;
+      state.operation = null;
+      state.roundTrips = 0;
+      state.nanos = 0;
+   }//end endOperation
+
+   /**
+    * Finds the call site of the statement and, when asked, the menu flow
+    * runSession called to get there
+    */
+   private static String[] where (boolean operation) {
+      return WALKER.walk(frames -> {
+         String site = "unknown";
+         String flow = null;
+         String previous = null;
+         boolean found = false;
+         for (Iterator<StackWalker.StackFrame> it = frames.iterator(); it.hasNext(); ) {
+            StackWalker.StackFrame f = it.next();
+            String cls = f.getClassName();
+            String method = f.getMethodName();
+            if (!found) {
+               if (cls.equals("QueryMetrics") || (cls.equals("Cafe") && (INTERNAL.contains(method) || method.startsWith("lambda$"))))
+                  continue;
+               site = cls + "." + method + ":" + f.getLineNumber();
+               found = true;
+               if (!operation)
+                  break;
+            } else if (cls.equals("Cafe") && method.equals("runSession")) {
+               flow = previous;
+               break;
+            }//end if
+            previous = method;
+         }//end for
+         return new String[] { site, flow };
+      });
+   }//end where
+
+   @Override
+   public long getStatements () {
+      return this._statements.sum();
+   }//end getStatements
+
+   @Override
+   public long getRows () {
+      return this._rows.sum();
+   }//end getRows
+
+   @Override
+   public long getErrors () {
+      return this._errors.sum();
+   }//end getErrors
+
+   @Override
+   public void reset () {
+      this._sites.clear();
+      this._operations.clear();
+      this._statements.reset();
+      this._rows.reset();
+      this._errors.reset();
+   }//end reset
+
+   /**
+    * @return the call sites by total time and the operations by name, as text
+    */
+   @Override
+   public String getSnapshot () {
+      StringBuilder b = new StringBuilder();
+      b.append(String.format("%,d statements, %,d rows, %,d errors%n%n", getStatements(), getRows(), getErrors()));
+      b.append(String.format("%-36s %9s %7s %10s %9s %9s %9s %9s%n", "call site", "calls", "errors", "rows",
+                             "mean ms", "p50 ms", "p99 ms", "max ms"));
+      List<Map.Entry<String, Site>> sites = new ArrayList<Map.Entry<String, Site>>(this._sites.entrySet());
+      sites.sort((x, y) -> Double.compare(total(y.getValue()), total(x.getValue())));
+      for (Map.Entry<String, Site> e : sites) {
+         Site s = e.getValue();
+         b.append(String.format("%-36s %9d %7d %10d %9.3f %9.3f %9.3f %9.3f%n", e.getKey(), s.latency.count(),
+                                s.errors.sum(), s.rows.sum(), s.latency.mean() / 1e6, s.latency.percentile(50) / 1e6,
+                                s.latency.percentile(99) / 1e6, s.latency.max() / 1e6));
+      }//end for
+      b.append(String.format("%n%-36s %9s %12s %9s %12s %12s%n", "operation", "count", "round trips",
+                             "max", "db mean ms", "db p99 ms"));
+      List<String> names = new ArrayList<String>(this._operations.keySet());
+      names.sort(null);
+      for (String name : names) {
+         Operation op = this._operations.get(name);
+         long count = Math.max(1, op.count.sum());
+         b.append(String.format("%-36s %9d %12.2f %9d %12.3f %12.3f%n", name, op.count.sum(),
+                                (double) op.roundTrips.sum() / count, op.maxRoundTrips.get(),
+                                op.databaseTime.mean() / 1e6, op.databaseTime.percentile(99) / 1e6));
+      }//end for
+      return b.toString();
+   }//end getSnapshot
+
+   private static double total (Site s) {
+      return s.latency.mean() * s.latency.count();
+   }//end total
+
+}//end QueryMetrics
@@ -0,0 +1,45 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * The JMX view of QueryMetrics
+ *
+ */
+public interface QueryMetricsMBean {
+
+   /**
+    * @return the number of statements sent
+    */
+   long getStatements ();
+
+   /**
+    * @return the number of rows read or written
+    */
+   long getRows ();
+
+   /**
+    * @return the number of statements that failed
+    */
+   long getErrors ();
+
+   /**
+    * @return the per call site and per operation numbers, as text
+    */
+   String getSnapshot ();
+
+   /**
+    * Starts counting from zero
+    */
+   void reset ();
+
+}//end QueryMetricsMBean
@@ -0,0 +1,178 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class remembers the last few orders of the users that looked at
+ * their order history recently, in a small ring buffer per user, so
+ * repeated views are answered without a database round trip.  New orders
+ * are pushed into the ring of their user as they are placed.
+ *
+ * Entries expire after a while and are dropped whenever an order of the
+ * user is paid or changes its items through Cafe, so a change made by
+ * another process is picked up at the latest when the entry expires.
+ *
+ */
+public class RecentOrders {
+
+   // orders kept per user, as many as ViewOrderHistory shows
+   public static final int LENGTH = 5;
+
+   /**
+    * One order as shown in the history
+    */
+   public static class Order {
+      public final int orderid;
+      public final String login;
+      public final boolean paid;
+      public final Timestamp timeStampRecieved;
+      public final double total;
+
+      public Order (int orderid, String login, boolean paid, Timestamp timeStampRecieved, double total) {
+         this.orderid = orderid;
+         this.login = login;
+         this.paid = paid;
+         this.timeStampRecieved = timeStampRecieved;
+         this.total = total;
+      }//end Order
+   }//end Order
+
+   /**
+    * The last orders of one user, the newest one at next - 1
+    */
+   private static class Ring {
+      final Order[] orders = new Order[LENGTH];
+      final long expires;
+      int next = 0;
+      int size = 0;
+
+      Ring (long expires) {
+         this.expires = expires;
+      }//end Ring
+
+      synchronized void push (Order order) {
+         this.orders[this.next] = order;
+         this.next = (this.next + 1) % LENGTH;
+         this.size = Math.min(LENGTH, this.size + 1);
+      }//end push
+
+      synchronized List<Order> newestFirst () {
+         List<Order> list = new ArrayList<Order>(this.size);
+         for (int i = 1; i <= this.size; ++i)
+            list.add(this.orders[(this.next - i + LENGTH) % LENGTH]);
+         return list;
+      }//end newestFirst
+   }//end Ring
+
+   private final int _capacity;
+   private final long _ttlNanos;
+   private final ConcurrentHashMap<String, Ring> _rings = new ConcurrentHashMap<String, Ring>();
+
+   // bumped by every change, a history read before a change is not kept
+   private final AtomicLong _changes = new AtomicLong();
+
+   /**
+    * Creates a new cache
+    *
+    * @param capacity the maximum number of users remembered
+    * @param ttlMillis how long a user's orders are remembered
+    */
+   public RecentOrders (int capacity, long ttlMillis) {
+      this._capacity = capacity;
+      this._ttlNanos = ttlMillis * 1000000L;
+   }//end RecentOrders
+
+   /**
+    * @param login the user login
+    * @return the user's last orders, newest first, or null if the user is not cached
+    */
+   public List<Order> get (String login) {
+      Ring ring = this._rings.get(key(login));
+      if (ring == null)
+         return null;
+      if (System.nanoTime() - ring.expires > 0) {
+         this._rings.remove(key(login), ring);
+         return null;
+      }//end if
+      return ring.newestFirst();
+   }//end get
+
+   /**
+    * @return the value to pass to put() for a history about to be read
+    */
+   public long stamp () {
+      return this._changes.get();
+   }//end stamp
+
+   /**
+    * Remembers the history read from the database, unless an order
+    * changed since the read started
+    *
+    * @param login the user login
+    * @param newestFirst the user's last orders, newest first
+    * @param stamp the value stamp() returned before the history was read
+    */
+   public void put (String login, List<Order> newestFirst, long stamp) {
+      if (this._rings.size() >= this._capacity) {
+         // full, drop some entry to make room
+         Iterator<String> it = this._rings.keySet().iterator();
+         if (it.hasNext()) {
+            it.next();
+            it.remove();
+         }//end if
+      }//end if
+      Ring ring = new Ring(System.nanoTime() + this._ttlNanos);
+      for (int i = Math.min(LENGTH, newestFirst.size()) - 1; i >= 0; --i)
+         ring.push(newestFirst.get(i));
+      if (this._changes.get() != stamp)
+         return;
+      this._rings.put(key(login), ring);
+      // a change that raced with the put
+      if (this._changes.get() != stamp)
+         this._rings.remove(key(login), ring);
+   }//end put
+
+   /**
+    * Adds a new order to its user's ring, if the user is cached
+    *
+    * @param order the order that was placed
+    */
+   public void push (Order order) {
+      this._changes.incrementAndGet();
+      Ring ring = this._rings.get(key(order.login));
+      if (ring != null)
+         ring.push(order);
+   }//end push
+
+   /**
+    * Forgets a user, called whenever an order of the user changes
+    *
+    * @param login the user login
+    */
+   public void invalidate (String login) {
+      this._changes.incrementAndGet();
+      this._rings.remove(key(login));
+   }//end invalidate
+
+   // char(50) logins compare without trailing blanks, a no-op on varchar
+   private static String key (String login) {
+      return MenuItem.trim(login);
+   }//end key
+
+}//end RecentOrders
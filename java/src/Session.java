@@ -0,0 +1,219 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+
+/**
+ * This class holds the input and output streams of one user session.
+ *
+ * The menu flows in Cafe read from Cafe.in and print to System.out and
+ * System.err.  When several sessions share one process, each thread is
+ * bound to its Session and those three streams forward to the streams of
+ * the session bound to the calling thread.  A thread without a session
+ * uses the console.
+ *
+ */
+public class Session {
+
+   private static final ThreadLocal<Session> CURRENT = new ThreadLocal<Session>();
+
+   // console streams, used by threads without a session
+   private static final BufferedReader CONSOLE_IN = new BufferedReader(new InputStreamReader(System.in));
+   private static final PrintStream CONSOLE_OUT = System.out;
+   private static final PrintStream CONSOLE_ERR = System.err;
+
+   private static boolean installed = false;
+
+   private final BufferedReader _in;
+   private final PrintStream _out;
+   private final PrintStream _err;
+   private boolean _closed = false;
+
+   /**
+    * Creates a new session
+    *
+    * @param in the input of the session
+    * @param out the output of the session
+    * @param err the error output of the session, may be the same as out
+    */
+   public Session (BufferedReader in, PrintStream out, PrintStream err) {
+      this._in = in;
+      this._out = out;
+      this._err = err;
+   }//end Session
+
+   /**
+    * Routes System.out and System.err through the session bound to the
+    * calling thread.  Needed once before sessions run on other threads.
+    */
+   public static synchronized void install () {
+      if (installed)
+         return;
+      System.setOut(new Output(false));
+      System.setErr(new Output(true));
+      installed = true;
+   }//end install
+
+   /**
+    * Binds the session to the calling thread
+    */
+   public void bind () {
+      CURRENT.set(this);
+   }//end bind
+
+   /**
+    * Unbinds whatever session is bound to the calling thread
+    */
+   public static void unbind () {
+      CURRENT.remove();
+   }//end unbind
+
+   /**
+    * @return the session bound to the calling thread, or null for the console
+    */
+   public static Session current () {
+      return CURRENT.get();
+   }//end current
+
+   /**
+    * @return the output stream of the calling thread's session or the console
+    */
+   public static PrintStream out () {
+      Session session = CURRENT.get();
+      return session == null ? CONSOLE_OUT : session._out;
+   }//end out
+
+   private static PrintStream err () {
+      Session session = CURRENT.get();
+      return session == null ? CONSOLE_ERR : session._err;
+   }//end err
+
+   /**
+    * Reads a line of the calling thread's session.  A session that timed
+    * out stays at end of input, so the menus log out and exit.
+    */
+   private static String readLine () throws IOException {
+      Session session = CURRENT.get();
+      if (session == null)
+         return CONSOLE_IN.readLine();
+      if (session._closed)
+         return null;
+      try {
+         String line = session._in.readLine();
+         if (line == null)
+            session._closed = true;
+         return line;
+      } catch (InterruptedIOException e) {
+         session._closed = true;
+         return null;
+      }//end try
+   }//end readLine
+
+   /**
+    * The reader behind Cafe.in, it reads from the calling thread's session
+    */
+   public static class Input extends BufferedReader {
+      public Input () {
+         super(new StringReader(""), 1);
+      }//end Input
+
+      @Override
+      public String readLine () throws IOException {
+         return Session.readLine();
+      }//end readLine
+
+      @Override
+      public int read () throws IOException {
+         Session session = CURRENT.get();
+         return session == null ? CONSOLE_IN.read() : session._in.read();
+      }//end read
+
+      @Override
+      public int read (char[] buffer, int offset, int length) throws IOException {
+         Session session = CURRENT.get();
+         return session == null ? CONSOLE_IN.read(buffer, offset, length)
+                                : session._in.read(buffer, offset, length);
+      }//end read
+
+      @Override
+      public boolean ready () throws IOException {
+         Session session = CURRENT.get();
+         return session == null ? CONSOLE_IN.ready() : session._in.ready();
+      }//end ready
+
+      @Override
+      public void close () {
+         // the session owner closes the real stream
+      }//end close
+   }//end Input
+
+   /**
+    * The stream installed as System.out or System.err, every call goes to
+    * the stream of the calling thread's session.  Nothing is synchronized
+    * here, so a slow client never holds up the other sessions.
+    */
+   private static class Output extends PrintStream {
+      private final boolean _err;
+
+      Output (boolean err) {
+         super(OutputStream.nullOutputStream());
+         this._err = err;
+      }//end Output
+
+      private PrintStream target () {
+         return this._err ? Session.err() : Session.out();
+      }//end target
+
+      @Override public void flush () { target().flush(); }
+      @Override public void close () { target().flush(); }
+      @Override public boolean checkError () { return target().checkError(); }
+      @Override public void write (int b) { target().write(b); }
+      @Override public void write (byte[] buf, int off, int len) { target().write(buf, off, len); }
+      @Override public void write (byte[] buf) throws IOException { target().write(buf); }
+      @Override public void print (boolean b) { target().print(b); }
+      @Override public void print (char c) { target().print(c); }
+      @Override public void print (int i) { target().print(i); }
+      @Override public void print (long l) { target().print(l); }
+      @Override public void print (float f) { target().print(f); }
+      @Override public void print (double d) { target().print(d); }
+      @Override public void print (char[] s) { target().print(s); }
+      @Override public void print (String s) { target().print(s); }
+      @Override public void print (Object obj) { target().print(obj); }
+      @Override public void println () { target().println(); }
+      @Override public void println (boolean x) { target().println(x); }
+      @Override public void println (char x) { target().println(x); }
+      @Override public void println (int x) { target().println(x); }
+      @Override public void println (long x) { target().println(x); }
+      @Override public void println (float x) { target().println(x); }
+      @Override public void println (double x) { target().println(x); }
+      @Override public void println (char[] x) { target().println(x); }
+      @Override public void println (String x) { target().println(x); }
+      @Override public void println (Object x) { target().println(x); }
+      @Override public PrintStream printf (String format, Object... args) { return target().printf(format, args); }
+      @Override public PrintStream printf (Locale l, String format, Object... args) { return target().printf(l, format, args); }
+      @Override public PrintStream format (String format, Object... args) { return target().format(format, args); }
+      @Override public PrintStream format (Locale l, String format, Object... args) { return target().format(l, format, args); }
+      @Override public PrintStream append (CharSequence csq) { return target().append(csq); }
+      @Override public PrintStream append (CharSequence csq, int start, int end) { return target().append(csq, start, end); }
+      @Override public PrintStream append (char c) { return target().append(c); }
+   }//end Output
+
+}//end Session
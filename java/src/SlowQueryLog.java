@@ -0,0 +1,434 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class aggregates the statements Cafe runs by fingerprint, the SQL
+ * with its literals replaced by '?', so the same statement built with
+ * different values counts as one.  Statements slower than the threshold
+ * are written to a log file that is rotated by size, together with the
+ * plan of the worst ones when EXPLAIN is turned on.  A summary of the
+ * fingerprints by total time is written to the log every few minutes.
+ *
+ * The file is written by a background thread; when it falls behind,
+ * entries are dropped and counted instead of slowing the sessions down.
+ *
+ * Only fingerprints are written, never the SQL as it ran or its
+ * parameters, either may hold a password.  A statement with parameters is
+ * explained with its generic plan, without running it; that needs
+ * PostgreSQL 16, older servers only explain statements without
+ * parameters, which EXPLAIN ANALYZE runs.
+ *
+ * Settings, as system properties:
+ *    cafe.slowlog.thresholdMillis   log statements slower than this (default 200, -1 turns the log off)
+ *    cafe.slowlog.file              the log file (default slow-queries.log)
+ *    cafe.slowlog.maxBytes          rotate the file at this size (default 10 MB)
+ *    cafe.slowlog.files             rotated files kept (default 5)
+ *    cafe.slowlog.explain           EXPLAIN the worst SELECTs (default false)
+ *    cafe.slowlog.explainMillis     only when slower than this (default 1000)
+ *    cafe.slowlog.summaryMinutes    minutes between summaries (default 10)
+ *
+ */
+public class SlowQueryLog {
+
+   private static final long THRESHOLD_MILLIS = Long.getLong("cafe.slowlog.thresholdMillis", 200L);
+   private static final String FILE = System.getProperty("cafe.slowlog.file", "slow-queries.log");
+   private static final long MAX_BYTES = Long.getLong("cafe.slowlog.maxBytes", 10L * 1024 * 1024);
+   private static final int FILES = Integer.getInteger("cafe.slowlog.files", 5);
+   private static final boolean EXPLAIN = Boolean.getBoolean("cafe.slowlog.explain");
+   private static final long EXPLAIN_MILLIS = Long.getLong("cafe.slowlog.explainMillis", 1000L);
+   private static final long SUMMARY_MINUTES = Long.getLong("cafe.slowlog.summaryMinutes", 10L);
+
+   // fingerprints remembered for SQL strings seen before, dynamic SQL past this is fingerprinted every time
+   private static final int FINGERPRINT_CACHE_SIZE = 10000;
+
+   // a fingerprint is explained at most this often
+   private static final long EXPLAIN_EVERY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+   /**
+    * The statements of one fingerprint
+    */
+   private static class Stats {
+      final LongAdder count = new LongAdder();
+      final LongAdder totalNanos = new LongAdder();
+      final AtomicLong maxNanos = new AtomicLong();
+      final LongAdder slow = new LongAdder();
+      final AtomicLong explainedAt = new AtomicLong(System.nanoTime() - EXPLAIN_EVERY_NANOS);
+   }//end Stats
+
+   /**
+    * A slow statement waiting to be written, the SQL is only kept to be
+    * explained
+    */
+   private static class Entry {
+      final LocalDateTime time = LocalDateTime.now();
+      final String fingerprint;
+      final String sql;
+      final long nanos;
+      final boolean explain;
+
+      Entry (String fingerprint, String sql, long nanos, boolean explain) {
+         this.fingerprint = fingerprint;
+         this.sql = explain ? sql : null;
+         this.nanos = nanos;
+         this.explain = explain;
+      }//end Entry
+   }//end Entry
+
+   private final ConnectionPool _pool;
+   private final Map<String, String> _fingerprints = new ConcurrentHashMap<String, String>();
+   private final Map<String, Stats> _stats = new ConcurrentHashMap<String, Stats>();
+   private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(1024);
+   private final LongAdder _dropped = new LongAdder();
+   private final Thread _writer;
+   private Writer _out = null;
+   private long _written = 0;
+   // whether the server has EXPLAIN (GENERIC_PLAN), read once by the writer thread
+   private Boolean _genericPlan = null;
+
+   /**
+    * @return a slow query log, or null when cafe.slowlog.thresholdMillis is negative
+    */
+   public static SlowQueryLog create (ConnectionPool pool) {
+      return THRESHOLD_MILLIS < 0 ? null : new SlowQueryLog(pool);
+   }//end create
+
+   /**
+    * @param pool connections to run EXPLAIN on
+    */
+   private SlowQueryLog (ConnectionPool pool) {
+      this._pool = pool;
+      this._writer = new Thread(this::write, "cafe-slowlog");
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }//end SlowQueryLog
+
+   /**
+    * Counts one statement, and logs it when it was slow
+    *
+    * @param sql the statement
+    * @param nanos how long it took
+    */
+   public void record (String sql, long nanos) {
+      String fingerprint = fingerprintOf(sql);
+      Stats stats = this._stats.computeIfAbsent(fingerprint, k -> new Stats());
+      stats.count.increment();
+      stats.totalNanos.add(nanos);
+      long max;
+      boolean worst = false;
+      while (nanos > (max = stats.maxNanos.get()))
+         if (stats.maxNanos.compareAndSet(max, nanos)) {
+            worst = true;
+            break;
+         }//end if
+      if (nanos < TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MILLIS))
+         return;
+      stats.slow.increment();
+
+      // explain a statement that is the slowest of its kind so far, once a minute at most
+      boolean explain = false;
+      if (EXPLAIN && worst && nanos >= TimeUnit.MILLISECONDS.toNanos(EXPLAIN_MILLIS) && explainable(sql)) {
+         long now = System.nanoTime();
+         long at = stats.explainedAt.get();
+         explain = now - at >= EXPLAIN_EVERY_NANOS && stats.explainedAt.compareAndSet(at, now);
+      }//end if
+      if (!this._queue.offer(new Entry(fingerprint, sql, nanos, explain)))
+         this._dropped.increment();
+   }//end record
+
+   /**
+    * Replaces the literals of a statement with '?', lower cases it outside
+    * quoted identifiers and collapses white space and IN lists
+    *
+    * @param sql the statement
+    * @return its fingerprint
+    */
+   public static String fingerprint (String sql) {
+      StringBuilder b = new StringBuilder(sql.length());
+      boolean space = false;
+      int n = sql.length();
+      for (int i = 0; i < n; ++i) {
+         char c = sql.charAt(i);
+         if (Character.isWhitespace(c)) {
+            space = true;
+            continue;
+         }//end if
+         if (space && b.length() > 0)
+            b.append(' ');
+         space = false;
+         if (c == '\'') {
+            // string literal, '' is an escaped quote
+            for (++i; i < n; ++i)
+               if (sql.charAt(i) == '\'') {
+                  if (i + 1 < n && sql.charAt(i + 1) == '\'')
+                     ++i;
+                  else
+                     break;
+               }//end if
+            b.append('?');
+         } else if (c == '"') {
+            // quoted identifier, kept as written
+            int end = sql.indexOf('"', i + 1);
+            end = end < 0 ? n - 1 : end;
+            b.append(sql, i, end + 1);
+            i = end;
+         } else if (Character.isDigit(c) && !identifier(b)) {
+            while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+               ++i;
+            b.append('?');
+         } else {
+            b.append(Character.toLowerCase(c));
+         }//end if
+      }//end for
+      return collapseLists(b.toString());
+   }//end fingerprint
+
+   /**
+    * @return the fingerprints by total time, as text
+    */
+   public String summary () {
+      List<Map.Entry<String, Stats>> all = new ArrayList<Map.Entry<String, Stats>>(this._stats.entrySet());
+      all.sort((x, y) -> Long.compare(y.getValue().totalNanos.sum(), x.getValue().totalNanos.sum()));
+      StringBuilder b = new StringBuilder();
+      b.append(String.format("%9s %7s %11s %9s %9s  %s%n", "count", "slow", "total ms", "mean ms", "max ms", "fingerprint"));
+      for (Map.Entry<String, Stats> e : all) {
+         Stats s = e.getValue();
+         long count = Math.max(1, s.count.sum());
+         b.append(String.format("%9d %7d %11.1f %9.3f %9.3f  %s%n", s.count.sum(), s.slow.sum(), s.totalNanos.sum() / 1e6,
+                                s.totalNanos.sum() / 1e6 / count, s.maxNanos.get() / 1e6, e.getKey()));
+      }//end for
+      if (this._dropped.sum() > 0)
+         b.append(String.format("%d slow statement(s) not logged, the writer fell behind%n", this._dropped.sum()));
+      return b.toString();
+   }//end summary
+
+   /**
+    * Writes what is queued and a last summary, then stops the writer
+    */
+   public void close () {
+      this._writer.interrupt();
+      try {
+         this._writer.join(5000);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   private String fingerprintOf (String sql) {
+      String fingerprint = this._fingerprints.get(sql);
+      if (fingerprint == null) {
+         fingerprint = fingerprint(sql);
+         if (this._fingerprints.size() < FINGERPRINT_CACHE_SIZE)
+            this._fingerprints.put(sql, fingerprint);
+      }//end if
+      return fingerprint;
+   }//end fingerprintOf
+
+   private static boolean identifier (StringBuilder b) {
+      if (b.length() == 0)
+         return false;
+      char c = b.charAt(b.length() - 1);
+      return Character.isLetterOrDigit(c) || c == '_';
+   }//end identifier
+
+   /**
+    * Turns IN (?, ?, ?) and VALUES (?, ?), (?, ?) lists of any length into (...)
+    */
+   private static String collapseLists (String fingerprint) {
+      return fingerprint.replaceAll("\\(\\?(, ?\\?)+\\)", "(...)").replaceAll("\\(\\.\\.\\.\\)(, ?\\(\\.\\.\\.\\))+", "(...)");
+   }//end collapseLists
+
+   /**
+    * Only plain SELECTs are explained, EXPLAIN ANALYZE runs the statement
+    * and sequence functions are not undone by a rollback
+    */
+   private static boolean explainable (String sql) {
+      String s = sql.trim().toLowerCase();
+      return s.startsWith("select") && !s.contains("nextval") && !s.contains("setval");
+   }//end explainable
+
+   private void write () {
+      long summaryAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(SUMMARY_MINUTES);
+      boolean running = true;
+      while (running) {
+         try {
+            Entry entry = this._queue.poll(1, TimeUnit.SECONDS);
+            if (entry != null)
+               write(entry);
+         } catch (InterruptedException e) {
+            running = false;
+         }//end try
+         if (!running || System.nanoTime() - summaryAt >= 0) {
+            Entry entry;
+            while ((entry = this._queue.poll()) != null)
+               write(entry);
+            if (!this._stats.isEmpty())
+               append(LocalDateTime.now() + " summary" + System.lineSeparator() + summary());
+            summaryAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(SUMMARY_MINUTES);
+         }//end if
+      }//end while
+      try {
+         if (this._out != null)
+            this._out.close();
+      } catch (IOException e) {
+         // ignored.
+      }//end try
+   }//end write
+
+   private void write (Entry entry) {
+      String nl = System.lineSeparator();
+      StringBuilder b = new StringBuilder();
+      b.append(entry.time).append(String.format(" %.3f ms", entry.nanos / 1e6)).append(nl);
+      b.append("  fingerprint: ").append(entry.fingerprint).append(nl);
+      if (entry.explain)
+         b.append(explain(entry));
+      append(b.toString());
+   }//end write
+
+   private String explain (Entry entry) {
+      StringBuilder b = new StringBuilder("  plan:").append(System.lineSeparator());
+      try {
+         ConnectionPool.PooledConnection pc = this._pool.borrow();
+         Connection conn = pc.connection;
+         try {
+            // the parameters are not kept, a statement that has some is planned without them
+            String sql = numberPlaceholders(entry.sql);
+            boolean generic = !sql.equals(entry.sql.replace("??", "?"));
+            if (generic && !genericPlan(conn))
+               return "";
+            // ANALYZE runs the statement, undo whatever it might do
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+               try (ResultSet rs = stmt.executeQuery("EXPLAIN " + (generic ? "(GENERIC_PLAN) " : "(ANALYZE, BUFFERS) ") + sql)) {
+                  while (rs.next())
+                     b.append("    ").append(rs.getString(1)).append(System.lineSeparator());
+               }//end try
+            } finally {
+               conn.rollback();
+               conn.setAutoCommit(true);
+            }//end try
+         } finally {
+            this._pool.release(pc);
+         }//end try
+      } catch (SQLException e) {
+         b.append("    EXPLAIN failed: ").append(e.getMessage()).append(System.lineSeparator());
+      }//end try
+      return b.toString();
+   }//end explain
+
+   /**
+    * @return whether the server is PostgreSQL 16 or later, asked once
+    */
+   private boolean genericPlan (Connection conn) throws SQLException {
+      if (this._genericPlan == null) {
+         try (Statement stmt = conn.createStatement();
+              ResultSet rs = stmt.executeQuery("SELECT current_setting('server_version_num')::integer")) {
+            this._genericPlan = rs.next() && rs.getInt(1) >= 160000;
+         }//end try
+      }//end if
+      return this._genericPlan;
+   }//end genericPlan
+
+   /**
+    * Replaces the JDBC '?' placeholders with $1, $2, ... the way the driver
+    * does, so the server can plan the statement without its parameters.
+    * Quoted literals and identifiers, comments and the '??' escape of the
+    * ? operator are left alone.
+    *
+    * @param sql a statement with JDBC placeholders
+    * @return the statement with numbered placeholders
+    */
+   static String numberPlaceholders (String sql) {
+      StringBuilder b = new StringBuilder(sql.length() + 16);
+      int n = sql.length();
+      int number = 0;
+      for (int i = 0; i < n; ++i) {
+         char c = sql.charAt(i);
+         if (c == '\'' || c == '"') {
+            // a doubled quote inside is just two quoted runs in a row
+            int end = sql.indexOf(c, i + 1);
+            end = end < 0 ? n - 1 : end;
+            b.append(sql, i, end + 1);
+            i = end;
+         } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+            int end = sql.indexOf('\n', i);
+            end = end < 0 ? n - 1 : end;
+            b.append(sql, i, end + 1);
+            i = end;
+         } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+            int end = sql.indexOf("*/", i + 2);
+            end = end < 0 ? n - 1 : end + 1;
+            b.append(sql, i, end + 1);
+            i = end;
+         } else if (c == '?' && i + 1 < n && sql.charAt(i + 1) == '?') {
+            b.append('?');
+            ++i;
+         } else if (c == '?') {
+            b.append('$').append(++number);
+         } else {
+            b.append(c);
+         }//end if
+      }//end for
+      return b.toString();
+   }//end numberPlaceholders
+
+   private void append (String text) {
+      try {
+         if (this._out == null || this._written >= MAX_BYTES)
+            rotate();
+         this._out.write(text);
+         this._out.flush();
+         this._written += text.length();
+      } catch (IOException e) {
+         this._dropped.increment();
+      }//end try
+   }//end append
+
+   private void rotate () throws IOException {
+      File file = new File(FILE);
+      if (this._out != null) {
+         this._out.close();
+         this._out = null;
+         new File(FILE + "." + FILES).delete();
+         for (int i = FILES - 1; i >= 1; --i) {
+            File from = new File(FILE + "." + i);
+            if (from.exists())
+               from.renameTo(new File(FILE + "." + (i + 1)));
+         }//end for
+         file.renameTo(new File(FILE + ".1"));
+      }//end if
+      this._written = file.length();
+      this._out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+   }//end rotate
+
+}//end SlowQueryLog
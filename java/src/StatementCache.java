@@ -0,0 +1,105 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the most recently used PreparedStatements of one
+ * physical connection, keyed by their SQL text.  Reusing the statement
+ * lets the PostgreSQL driver keep the server-side prepared statement, so
+ * the query is parsed and planned once instead of on every call.
+ *
+ */
+public class StatementCache {
+
+   // the connection every cached statement belongs to
+   private final Connection _connection;
+
+   // maximum number of statements kept open
+   private final int _capacity;
+
+   // access ordered map, the eldest entry is the least recently used one
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   /**
+    * Creates a new cache for the given connection
+    *
+    * @param connection the physical connection the statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    */
+   public StatementCache (Connection connection, int capacity) {
+      this._connection = connection;
+      this._capacity = capacity;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= StatementCache.this._capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns an open PreparedStatement for the given SQL, preparing it on
+    * the connection when it is not cached yet.  The caller must not close
+    * the returned statement.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return the cached statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement get (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null || stmt.isClosed()) {
+         stmt = this._connection.prepareStatement(sql);
+         this._statements.put(sql, stmt);
+      } else {
+         stmt.clearParameters();
+      }//end if
+      return stmt;
+   }//end get
+
+   /**
+    * @return the number of statements currently cached
+    */
+   public synchronized int size () {
+      return this._statements.size();
+   }//end size
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void clear () {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }//end while
+   }//end clear
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
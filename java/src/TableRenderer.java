@@ -0,0 +1,333 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * This class writes query results to standard out one cell at a time.
+ * Output is collected in a per-thread char buffer that is reused between
+ * queries and written out in large blocks instead of one print per cell.
+ *
+ * Three output modes exist, chosen with -Dcafe.output=<mode>:
+ *    text   the padded columns executeQuery always printed (default)
+ *    tsv    tab separated values with a header line
+ *    json   one JSON object per row (JSON lines)
+ *
+ */
+public abstract class TableRenderer {
+
+   // the buffer is written out when it is this full
+   private static final int BUFFER_SIZE = 16384;
+
+   private static final ThreadLocal<char[]> BUFFERS = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+   // output mode used by create()
+   private static volatile String defaultMode = System.getProperty("cafe.output", "text");
+
+   private static final String NEWLINE = System.lineSeparator();
+
+   private static final DateTimeFormatter SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+   protected final PrintStream out;
+   private final char[] _buffer;
+   private int _length = 0;
+
+   protected String[] columns;
+   protected int column = 0;
+   protected int rows = 0;
+
+   protected TableRenderer (PrintStream out) {
+      this.out = out;
+      this._buffer = BUFFERS.get();
+   }//end TableRenderer
+
+   /**
+    * @return a renderer for the default output mode writing to System.out
+    */
+   public static TableRenderer create () {
+      return create(defaultMode);
+   }//end create
+
+   /**
+    * @param mode text, tsv or json
+    * @return a renderer for that mode writing to System.out
+    */
+   public static TableRenderer create (String mode) {
+      PrintStream out = System.out;
+      switch (mode) {
+         case "tsv": return new Tsv(out);
+         case "json": case "jsonl": return new JsonLines(out);
+         case "text": return new Text(out);
+         default: throw new IllegalArgumentException("unknown output mode: " + mode);
+      }//end switch
+   }//end create
+
+   /**
+    * Changes the output mode of renderers made by create()
+    *
+    * @param mode text, tsv or json
+    */
+   public static void setDefaultMode (String mode) {
+      create(mode);
+      defaultMode = mode;
+   }//end setDefaultMode
+
+   /**
+    * Starts a table
+    *
+    * @param columns the column names
+    */
+   public void start (String[] columns) {
+      this.columns = columns;
+   }//end start
+
+   /**
+    * Adds the next cell of the current row
+    *
+    * @param value the cell value, may be null
+    */
+   public void cell (String value) {
+      if (this.column == 0 && this.rows == 0)
+         header();
+      if (this.column == 0)
+         beginRow();
+      writeCell(this.column, value);
+      ++this.column;
+   }//end cell
+
+   /**
+    * Ends the current row
+    */
+   public void endRow () {
+      endRowText();
+      this.column = 0;
+      ++this.rows;
+   }//end endRow
+
+   /**
+    * Writes out whatever is still buffered
+    *
+    * @return the number of rows rendered
+    */
+   public int finish () {
+      flush();
+      this.out.flush();
+      return this.rows;
+   }//end finish
+
+   /**
+    * Formats a timestamp the way the database prints it, with the
+    * microseconds only as far as they are not zero
+    *
+    * @param value a timestamp column value, may be null
+    * @return the text of the cell
+    */
+   public static String timestamp (Timestamp value) {
+      if (value == null)
+         return null;
+      String text = value.toLocalDateTime().format(SECONDS);
+      int micros = value.getNanos() / 1000;
+      if (micros == 0)
+         return text;
+      String fraction = String.format("%06d", micros);
+      int end = fraction.length();
+      while (fraction.charAt(end - 1) == '0')
+         --end;
+      return text + "." + fraction.substring(0, end);
+   }//end timestamp
+
+   /**
+    * Formats an amount the way the database prints a numeric(n,2) column
+    *
+    * @param value the amount
+    * @return the text of the cell
+    */
+   public static String money (double value) {
+      return String.format(Locale.ROOT, "%.2f", value);
+   }//end money
+
+   // called once before the first row
+   protected abstract void header ();
+
+   protected void beginRow () {
+   }//end beginRow
+
+   protected abstract void writeCell (int index, String value);
+
+   protected void endRowText () {
+      append(NEWLINE);
+   }//end endRowText
+
+   protected final void append (char c) {
+      if (this._length == this._buffer.length)
+         flush();
+      this._buffer[this._length++] = c;
+   }//end append
+
+   protected final void append (String s) {
+      append(s, 0, s.length());
+   }//end append
+
+   protected final void append (String s, int from, int to) {
+      while (from < to) {
+         if (this._length == this._buffer.length)
+            flush();
+         int n = Math.min(to - from, this._buffer.length - this._length);
+         s.getChars(from, from + n, this._buffer, this._length);
+         this._length += n;
+         from += n;
+      }//end while
+   }//end append
+
+   private void flush () {
+      if (this._length > 0) {
+         this.out.print(new String(this._buffer, 0, this._length));
+         this._length = 0;
+      }//end if
+   }//end flush
+
+   /**
+    * The fixed width layout of String.format("%-20.21s", value) + "\t",
+    * without parsing a format string for every cell
+    */
+   static class Text extends TableRenderer {
+      private static final int WIDTH = 20;
+      private static final int PRECISION = 21;
+
+      Text (PrintStream out) {
+         super(out);
+      }//end Text
+
+      @Override
+      protected void header () {
+         for (String name : this.columns)
+            pad(name);
+         append(NEWLINE);
+      }//end header
+
+      @Override
+      protected void writeCell (int index, String value) {
+         pad(value);
+      }//end writeCell
+
+      private void pad (String value) {
+         if (value == null)
+            value = "null";
+         int n = Math.min(value.length(), PRECISION);
+         append(value, 0, n);
+         for (int i = n; i < WIDTH; ++i)
+            append(' ');
+         append('\t');
+      }//end pad
+   }//end Text
+
+   /**
+    * Tab separated values, tabs, newlines and backslashes in values are escaped
+    */
+   static class Tsv extends TableRenderer {
+      Tsv (PrintStream out) {
+         super(out);
+      }//end Tsv
+
+      @Override
+      protected void header () {
+         for (int i = 0; i < this.columns.length; ++i)
+            writeCell(i, this.columns[i]);
+         append(NEWLINE);
+      }//end header
+
+      @Override
+      protected void writeCell (int index, String value) {
+         if (index > 0)
+            append('\t');
+         if (value == null) {
+            append("\\N");
+            return;
+         }//end if
+         int start = 0;
+         for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            String escape = c == '\t' ? "\\t" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : c == '\\' ? "\\\\" : null;
+            if (escape != null) {
+               append(value, start, i);
+               append(escape);
+               start = i + 1;
+            }//end if
+         }//end for
+         append(value, start, value.length());
+      }//end writeCell
+   }//end Tsv
+
+   /**
+    * One JSON object per row, keyed by column name
+    */
+   static class JsonLines extends TableRenderer {
+      JsonLines (PrintStream out) {
+         super(out);
+      }//end JsonLines
+
+      @Override
+      protected void header () {
+      }//end header
+
+      @Override
+      protected void beginRow () {
+         append('{');
+      }//end beginRow
+
+      @Override
+      protected void writeCell (int index, String value) {
+         if (index > 0)
+            append(',');
+         string(this.columns[index]);
+         append(':');
+         if (value == null)
+            append("null");
+         else
+            string(value);
+      }//end writeCell
+
+      @Override
+      protected void endRowText () {
+         append('}');
+         super.endRowText();
+      }//end endRowText
+
+      private void string (String value) {
+         append('"');
+         int start = 0;
+         for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+               append(value, start, i);
+               append('\\');
+               switch (c) {
+                  case '"': append('"'); break;
+                  case '\\': append('\\'); break;
+                  case '\n': append('n'); break;
+                  case '\r': append('r'); break;
+                  case '\t': append('t'); break;
+                  default: append(String.format("u%04x", (int) c)); break;
+               }//end switch
+               start = i + 1;
+            }//end if
+         }//end for
+         append(value, start, value.length());
+         append('"');
+      }//end string
+   }//end JsonLines
+
+}//end TableRenderer
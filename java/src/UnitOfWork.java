@@ -0,0 +1,156 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class is one database transaction opened by Cafe.begin().  While
+ * it is open, every statement the opening thread runs through Cafe goes
+ * to the same pooled connection inside the transaction, so the flows keep
+ * using executeUpdate, executeQuery and friends unchanged:
+ *
+ *    try (UnitOfWork work = esql.begin ()) {
+ *       esql.executeUpdate (...);
+ *       esql.executeUpdate (...);
+ *       work.commit ();
+ *    }
+ *
+ * Closing a unit of work that was not committed rolls it back.  A relaxed
+ * unit of work commits with synchronous_commit off: the commit returns
+ * without waiting for the WAL flush, and a crash may lose the last few
+ * hundred milliseconds of such commits, but never leaves them half
+ * applied.  It is meant for low-value writes like item status and
+ * comments, so they do not queue behind the payments for flushes.
+ * -Dcafe.relaxedCommit=false makes every commit wait for its flush.
+ *
+ * A unit of work must not stay open across user input, it holds its
+ * connection and locks until it ends.
+ *
+ */
+public class UnitOfWork implements AutoCloseable {
+
+   private static final boolean RELAXED_ENABLED = !"false".equals(System.getProperty("cafe.relaxedCommit"));
+
+   private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<UnitOfWork>();
+
+   private final ConnectionPool _pool;
+   final ConnectionPool.PooledConnection pc;
+   private boolean _ended = false;
+   private boolean _broken = false;
+
+   /**
+    * Opens a transaction on a connection borrowed from the pool
+    *
+    * @param pool where the connection is borrowed
+    * @param relaxed commit without waiting for the WAL flush
+    * @throws java.sql.SQLException when no connection could be borrowed
+    */
+   UnitOfWork (ConnectionPool pool, boolean relaxed) throws SQLException {
+      if (CURRENT.get() != null)
+         throw new IllegalStateException("a unit of work is already open on this thread");
+      this._pool = pool;
+      this.pc = pool.borrow();
+      try {
+         this.pc.connection.setAutoCommit(false);
+         if (relaxed && RELAXED_ENABLED) {
+            try (Statement stmt = this.pc.connection.createStatement()) {
+               stmt.execute("SET LOCAL synchronous_commit = off");
+            }//end try
+         }//end if
+      } catch (SQLException e) {
+         failed(e);
+         end();
+         throw e;
+      }//end try
+      CURRENT.set(this);
+   }//end UnitOfWork
+
+   /**
+    * @return the unit of work open on the calling thread, or null
+    */
+   static UnitOfWork current () {
+      return CURRENT.get();
+   }//end current
+
+   /**
+    * Makes the changes permanent and ends the unit of work
+    *
+    * @throws java.sql.SQLException when the commit failed, nothing was kept then
+    */
+   public void commit () throws SQLException {
+      if (this._ended)
+         throw new IllegalStateException("the unit of work has ended");
+      try {
+         this.pc.connection.commit();
+      } catch (SQLException e) {
+         failed(e);
+         throw e;
+      } finally {
+         end();
+      }//end try
+   }//end commit
+
+   /**
+    * Throws the changes away and ends the unit of work
+    */
+   public void rollback () {
+      if (this._ended)
+         return;
+      try {
+         this.pc.connection.rollback();
+      } catch (SQLException e) {
+         // the connection is unusable, it is not handed back.
+         this._broken = true;
+      } finally {
+         end();
+      }//end try
+   }//end rollback
+
+   /**
+    * Rolls back unless committed
+    */
+   @Override
+   public void close () {
+      rollback();
+   }//end close
+
+   /**
+    * Notes a failed statement, a connection exception (SQLState class 08)
+    * means the connection is not handed back to the pool
+    *
+    * @param e the failure
+    */
+   void failed (SQLException e) {
+      if (e.getSQLState() != null && e.getSQLState().startsWith("08"))
+         this._broken = true;
+   }//end failed
+
+   private void end () {
+      this._ended = true;
+      if (CURRENT.get() == this)
+         CURRENT.remove();
+      if (!this._broken) {
+         try {
+            this.pc.connection.setAutoCommit(true);
+         } catch (SQLException e) {
+            this._broken = true;
+         }//end try
+      }//end if
+      if (this._broken)
+         this._pool.discard(this.pc);
+      else
+         this._pool.release(this.pc);
+   }//end end
+
+}//end UnitOfWork
@@ -0,0 +1,29 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds a logged in user and the user's type (Customer,
+ * Employee or Manager), without the char(n) padding.
+ *
+ */
+public class UserProfile {
+
+   public final String login;
+   public final String type;
+
+   public UserProfile (String login, String type) {
+      this.login = login;
+      this.type = MenuItem.trim(type);
+   }//end UserProfile
+
+}//end UserProfile
@@ -0,0 +1,353 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class drives the Cafe menu flows the way a busy store does.  Every
+ * simulated customer and employee is a thread with its own session that
+ * logs in, then thinks for a while and runs one operation, over and over
+ * (a closed loop).  Customers browse, search, place orders of one to four
+ * items and look at their history; employees advance the status of the
+ * items customers ordered, mark orders paid and list the open orders.
+ *
+ * The latency of every operation after the warmup goes into a histogram
+ * per operation, reported at the end with the throughput.  The flows
+ * catch their own errors and print them to System.err; an operation that
+ * printed anything there is counted as an error, or as a conflict when it
+ * lost a concurrent update, and is left out of the latencies.
+ *
+ * Settings, as system properties:
+ *    cafe.workload.seconds         measured run time (default 60)
+ *    cafe.workload.warmupSeconds   run time before measuring (default 10)
+ *    cafe.workload.thinkMillis     mean think time, exponential (default 1000)
+ *    cafe.workload.customerMix     weights of the customer operations
+ *                                  (default browse=40,search=15,order=30,history=15)
+ *    cafe.workload.employeeMix     weights of the employee operations
+ *                                  (default status=60,paid=25,current=15)
+ *
+ * The simulated users are workload_customer_<n> and workload_employee_<n>,
+ * created if missing.  When the run ends, also when it failed, the orders
+ * it placed are deleted, and the users if the run created them.
+ *
+ */
+public class WorkloadDriver {
+
+   private static final int SECONDS = Integer.getInteger("cafe.workload.seconds", 60);
+   private static final int WARMUP_SECONDS = Integer.getInteger("cafe.workload.warmupSeconds", 10);
+   private static final int THINK_MILLIS = Integer.getInteger("cafe.workload.thinkMillis", 1000);
+   private static final String CUSTOMER_MIX = System.getProperty("cafe.workload.customerMix", "browse=40,search=15,order=30,history=15");
+   private static final String EMPLOYEE_MIX = System.getProperty("cafe.workload.employeeMix", "status=60,paid=25,current=15");
+
+   private static final String CUSTOMER = "workload_customer_";
+   private static final String EMPLOYEE = "workload_employee_";
+   private static final String PASSWORD = "workload";
+
+   private static final String[] STATUS_CHOICES = { "3", "1" };
+
+   /**
+    * An order placed by a simulated customer, waiting for the employees
+    */
+   private static class PlacedOrder {
+      final int orderid;
+      final List<String> items;
+      int advanced = 0;
+
+      PlacedOrder (int orderid, List<String> items) {
+         this.orderid = orderid;
+         this.items = items;
+      }//end PlacedOrder
+   }//end PlacedOrder
+
+   private final Cafe _esql;
+   private final int _customers;
+   private final int _employees;
+   private final Map<String, LatencyHistogram> _latencies = new LinkedHashMap<String, LatencyHistogram>();
+   private final Map<String, AtomicLong> _errors = new LinkedHashMap<String, AtomicLong>();
+   private final Map<String, AtomicLong> _conflicts = new LinkedHashMap<String, AtomicLong>();
+   private final ConcurrentLinkedQueue<PlacedOrder> _placed = new ConcurrentLinkedQueue<PlacedOrder>();
+   private final PrintStream _discard = new PrintStream(OutputStream.nullOutputStream());
+   private volatile boolean _measuring = false;
+   private volatile boolean _running = true;
+   private List<MenuItem> _menu;
+
+   /**
+    * @param esql the database access shared by every simulated user
+    * @param customers the number of customers
+    * @param employees the number of employees
+    */
+   public WorkloadDriver (Cafe esql, int customers, int employees) {
+      this._esql = esql;
+      this._customers = customers;
+      this._employees = employees;
+      for (String op : new String[] { "login", "browse", "search", "order", "history", "status", "paid", "current" }) {
+         this._latencies.put(op, new LatencyHistogram());
+         this._errors.put(op, new AtomicLong());
+         this._conflicts.put(op, new AtomicLong());
+      }//end for
+   }//end WorkloadDriver
+
+   /**
+    * Runs the workload and prints the results
+    *
+    * @throws java.lang.Exception when the simulated users cannot be set up
+    */
+   public void run () throws Exception {
+      List<String> created = new ArrayList<String>();
+      List<Thread> users = new ArrayList<Thread>();
+      // nothing is deleted if the run failed before reading it
+      int lastOrderBefore = Integer.MAX_VALUE;
+      try {
+         lastOrderBefore = this._esql.queryForObject("SELECT COALESCE(max(orderid), 0) FROM Orders", rs -> rs.getInt(1));
+         String user = "INSERT INTO Users (login, phoneNum, password, favItems, type) VALUES (?, NULL, ?, '', ?) " +
+                       "ON CONFLICT (login) DO NOTHING";
+         for (int i = 1; i <= this._customers; ++i)
+            if (this._esql.executeUpdate(user, CUSTOMER + i, PASSWORD, "Customer") > 0)
+               created.add(CUSTOMER + i);
+         for (int i = 1; i <= this._employees; ++i)
+            if (this._esql.executeUpdate(user, EMPLOYEE + i, PASSWORD, "Employee") > 0)
+               created.add(EMPLOYEE + i);
+         this._menu = this._esql.reloadMenu().items();
+         if (this._menu.isEmpty())
+            throw new IllegalStateException("the workload needs menu items");
+
+         Session.install();
+         String[] customerOps = mix(CUSTOMER_MIX);
+         String[] employeeOps = mix(EMPLOYEE_MIX);
+         for (int i = 1; i <= this._customers; ++i)
+            users.add(start(CUSTOMER + i, customerOps));
+         for (int i = 1; i <= this._employees; ++i)
+            users.add(start(EMPLOYEE + i, employeeOps));
+         System.out.println(String.format("%d customers and %d employees, %d s warmup, %d s measured, %d ms mean think time",
+                                          this._customers, this._employees, WARMUP_SECONDS, SECONDS, THINK_MILLIS));
+
+         Thread.sleep(WARMUP_SECONDS * 1000L);
+         this._measuring = true;
+         long started = System.nanoTime();
+         Thread.sleep(SECONDS * 1000L);
+         this._measuring = false;
+         double seconds = (System.nanoTime() - started) / 1e9;
+         stop(users);
+
+         System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s %10s", "operation", "count", "ops/s",
+                                          "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "conflicts"));
+         LatencyHistogram all = new LatencyHistogram();
+         long errors = 0;
+         long conflicts = 0;
+         for (Map.Entry<String, LatencyHistogram> e : this._latencies.entrySet()) {
+            all.add(e.getValue());
+            errors += this._errors.get(e.getKey()).get();
+            conflicts += this._conflicts.get(e.getKey()).get();
+            print(e.getKey(), e.getValue(), seconds, this._errors.get(e.getKey()).get(), this._conflicts.get(e.getKey()).get());
+         }//end for
+         print("all", all, seconds, errors, conflicts);
+      } finally {
+         stop(users);
+         cleanUp(created, lastOrderBefore);
+      }//end try
+   }//end run
+
+   /**
+    * Stops the simulated users and waits for their last operation
+    */
+   private void stop (List<Thread> users) throws InterruptedException {
+      this._running = false;
+      for (Thread t : users)
+         t.join();
+   }//end stop
+
+   /**
+    * Deletes the orders the run placed and the users it inserted, users
+    * that existed before the run are kept
+    */
+   private void cleanUp (List<String> created, int lastOrderBefore) throws SQLException {
+      this._esql.executeUpdate("DELETE FROM ItemStatus WHERE orderid IN " +
+                               "(SELECT orderid FROM Orders WHERE starts_with(login, ?) AND orderid > ?)",
+                               CUSTOMER, lastOrderBefore);
+      int orders = this._esql.executeUpdate("DELETE FROM Orders WHERE starts_with(login, ?) AND orderid > ?",
+                                            CUSTOMER, lastOrderBefore);
+      int users = 0;
+      for (String login : created) {
+         users += this._esql.executeUpdate("DELETE FROM Users WHERE login = ?", login);
+         this._esql.invalidateUser(login);
+         this._esql.invalidateHistory(login);
+      }//end for
+      this._esql.seedOpenOrders();
+      System.out.println("Deleted " + orders + " workload order(s) and " + users + " user(s)");
+   }//end cleanUp
+
+   private static void print (String op, LatencyHistogram h, double seconds, long errors, long conflicts) {
+      System.out.println(String.format("%-10s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10d %10d", op, h.count(), h.count() / seconds,
+                                       h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.percentile(99.9) / 1e6, h.max() / 1e6,
+                                       errors, conflicts));
+   }//end print
+
+   private Thread start (String login, String[] ops) {
+      Thread t = new Thread(() -> {
+         call("login", login + "\n" + PASSWORD + "\n", () -> Cafe.LogIn(this._esql));
+         while (this._running) {
+            think();
+            if (!this._running)
+               break;
+            String op = ops[ThreadLocalRandom.current().nextInt(ops.length)];
+            run(op, login);
+         }//end while
+      }, login);
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }//end start
+
+   private void run (String op, String login) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      MenuItem item = this._menu.get(random.nextInt(this._menu.size()));
+      switch (op) {
+         case "browse":
+            if (random.nextBoolean())
+               call(op, item.itemName + "\n", () -> Cafe.BrowseMenuName(this._esql));
+            else
+               call(op, item.type + "\n", () -> Cafe.BrowseMenuType(this._esql));
+            break;
+         case "search":
+            String text = item.itemName.substring(0, Math.min(4, item.itemName.length()));
+            call(op, text + "\n", () -> Cafe.SearchMenu(this._esql));
+            break;
+         case "order":
+            List<String> items = new ArrayList<String>();
+            int count = Math.min(1 + random.nextInt(4), this._menu.size());
+            while (items.size() < count) {
+               String name = this._menu.get(random.nextInt(this._menu.size())).itemName;
+               if (!items.contains(name))
+                  items.add(name);
+            }//end while
+            StringBuilder script = new StringBuilder(items.get(0)).append('\n');
+            for (int i = 1; i < items.size(); ++i)
+               script.append("y\n").append(items.get(i)).append('\n');
+            script.append("n\n");
+            int[] orderid = new int[1];
+            call(op, script.toString(), () -> orderid[0] = Cafe.AddOrder(this._esql, login));
+            if (orderid[0] > 0)
+               this._placed.add(new PlacedOrder(orderid[0], items));
+            break;
+         case "history":
+            call(op, "", () -> Cafe.ViewOrderHistory(this._esql, login));
+            break;
+         case "status":
+            PlacedOrder order = this._placed.poll();
+            if (order == null) {
+               run("current", login);
+               break;
+            }//end if
+            // started first, then finished, one item at a time
+            int step = order.advanced++;
+            String name = order.items.get(step / 2 % order.items.size());
+            call(op, order.orderid + "\n2\n" + name + "\n" + STATUS_CHOICES[step % 2] + "\nn\n9\n",
+                 () -> Cafe.EmployeeUpdateOrder(this._esql, login));
+            if (order.advanced < order.items.size() * 2)
+               this._placed.add(order);
+            break;
+         case "paid":
+            PlacedOrder paid = this._placed.poll();
+            if (paid == null) {
+               run("current", login);
+               break;
+            }//end if
+            call(op, paid.orderid + "\n1\n1\n9\n", () -> Cafe.EmployeeUpdateOrder(this._esql, login));
+            break;
+         case "current":
+            call(op, "", () -> Cafe.ViewCurrentOrder(this._esql, login));
+            break;
+         default:
+            throw new IllegalArgumentException("unknown operation: " + op);
+      }//end switch
+   }//end run
+
+   private interface Call {
+      void run () throws Exception;
+   }//end Call
+
+   /**
+    * Runs one flow on a session reading the script, and records its latency,
+    * or counts it as an error or conflict when it reported one
+    */
+   private void call (String op, String script, Call call) {
+      ByteArrayOutputStream errors = new ByteArrayOutputStream();
+      new Session(new BufferedReader(new StringReader(script)), this._discard, new PrintStream(errors, true)).bind();
+      // users log in once, during the warmup
+      boolean counted = this._measuring || op.equals("login");
+      try {
+         long start = System.nanoTime();
+         call.run();
+         long nanos = System.nanoTime() - start;
+         if (errors.size() == 0) {
+            if (counted)
+               this._latencies.get(op).record(nanos);
+         } else if (errors.toString().contains(Cafe.CONFLICT)) {
+            if (counted)
+               this._conflicts.get(op).incrementAndGet();
+         } else {
+            if (counted)
+               this._errors.get(op).incrementAndGet();
+         }//end if
+      } catch (Exception e) {
+         if (counted)
+            this._errors.get(op).incrementAndGet();
+         Session.unbind();
+         System.err.println(op + " failed: " + e.getMessage());
+      } finally {
+         Session.unbind();
+      }//end try
+   }//end call
+
+   private static void think () {
+      if (THINK_MILLIS <= 0)
+         return;
+      double u = ThreadLocalRandom.current().nextDouble();
+      long millis = (long) (-THINK_MILLIS * Math.log(1 - u));
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end think
+
+   /**
+    * @return one entry per unit of weight, so a uniform pick follows the mix
+    */
+   private String[] mix (String weights) {
+      List<String> ops = new ArrayList<String>();
+      for (String entry : weights.split(",")) {
+         String[] pair = entry.trim().split("=");
+         if (pair.length != 2 || !this._latencies.containsKey(pair[0].trim()))
+            throw new IllegalArgumentException("bad operation weight: " + entry);
+         for (int i = Integer.parseInt(pair[1].trim()); i > 0; --i)
+            ops.add(pair[0].trim());
+      }//end for
+      if (ops.isEmpty())
+         throw new IllegalArgumentException("empty operation mix: " + weights);
+      return ops.toArray(new String[0]);
+   }//end mix
+
+}//end WorkloadDriver
@@ -3,4 +3,4 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h 127.0.0.1 mydb < $DIR/../src/create_tables.sql
 psql -h 127.0.0.1 mydb < $DIR/../src/create_indexes.sql
 psql -h 127.0.0.1 mydb < $DIR/../src/load_data.sql
-#psql -h 127.0.0.1 mydb < $DIR/../src/triggers.sql
+psql -h 127.0.0.1 mydb < $DIR/../src/triggers.sql
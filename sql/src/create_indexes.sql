@@ -5,3 +5,15 @@ ON orders
 CREATE INDEX index2
 ON ItemStatus
 ( orderid );
+
+-- only the unpaid orders, which are few at any time: reads the open
+-- orders of the last day without walking the paid ones
+CREATE INDEX index3
+ON Orders
+(timeStampRecieved)
+WHERE paid = 'f';
+
+-- a user's orders newest first, read by the order history without a sort
+CREATE INDEX index4
+ON Orders
+(login, timeStampRecieved DESC);
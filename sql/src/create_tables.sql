@@ -2,37 +2,60 @@ DROP TABLE Users CASCADE;
 DROP TABLE Orders CASCADE;
 DROP TABLE Menu CASCADE;
 DROP TABLE ItemStatus;
+DROP TABLE MenuVersion;
+DROP TABLE schema_version;
 
 CREATE TABLE Users(
-	login char(50) UNIQUE NOT NULL, 
-	phoneNum char(16) UNIQUE, 
-	password char(50) NOT NULL,
-	favItems char(400),
-	type char(8) NOT NULL,
+	login varchar(50) UNIQUE NOT NULL, 
+	phoneNum varchar(16) UNIQUE, 
+	password varchar(50) NOT NULL,
+	favItems varchar(400),
+	type varchar(8) NOT NULL,
 	PRIMARY KEY(login));
 
 CREATE TABLE Menu(
-	itemName char(50) UNIQUE NOT NULL,
-	type char(20) NOT NULL,
-	price real NOT NULL,
-	description char(400),
-	imageURL char(256),
+	itemName varchar(50) UNIQUE NOT NULL,
+	type varchar(20) NOT NULL,
+	price numeric(8,2) NOT NULL,
+	description varchar(400),
+	imageURL varchar(256),
 	PRIMARY KEY(itemName));
 
 CREATE TABLE Orders(
 	orderid serial UNIQUE NOT NULL,
-	login char(50), 
+	login varchar(50), 
 	paid boolean,
 	timeStampRecieved timestamp NOT NULL,
-	total real NOT NULL,
+	total numeric(10,2) NOT NULL,
+	version integer NOT NULL DEFAULT 0,
 	PRIMARY KEY(orderid));
 
 CREATE TABLE ItemStatus(
 	orderid integer,
-	itemName char(50), 
+	itemName varchar(50), 
 	lastUpdated timestamp NOT NULL,
-	status char(20), 
-	comments char(130), 
+	status varchar(20), 
+	comments varchar(130), 
+	quantity integer NOT NULL DEFAULT 1 CHECK (quantity > 0),
+	unitPrice numeric(8,2) NOT NULL,
+	version integer NOT NULL DEFAULT 0,
 	PRIMARY KEY(orderid,itemName),
 	FOREIGN KEY(orderid) REFERENCES Orders(orderid),
 	FOREIGN KEY(itemName) REFERENCES Menu(itemName));
+
+-- bumped by a trigger on every change to Menu, the application reloads
+-- its cached copy of the menu when this value changes
+CREATE TABLE MenuVersion(
+	version bigint NOT NULL);
+INSERT INTO MenuVersion VALUES (0);
+
+-- the schema version this file creates, see MigrationRunner in the
+-- application for bringing an older database up to date
+CREATE TABLE schema_version(
+	version integer PRIMARY KEY,
+	description text NOT NULL,
+	applied timestamp NOT NULL DEFAULT now());
+INSERT INTO schema_version (version, description) VALUES (1, 'varchar instead of char(n), numeric cents instead of real');
+INSERT INTO schema_version (version, description) VALUES (2, 'quantity per order item');
+INSERT INTO schema_version (version, description) VALUES (3, 'unit price per order item');
+INSERT INTO schema_version (version, description) VALUES (4, 'row versions for optimistic updates');
@@ -6,12 +6,21 @@ COPY USERS
 FROM '/tmp/hfanc001/project/data/users.csv'
 WITH DELIMITER ';';
 
-COPY ORDERS
+COPY ORDERS (orderid, login, paid, timeStampRecieved, total)
 FROM '/tmp/hfanc001/project/data/orders.csv'
 WITH DELIMITER ';';
 ALTER SEQUENCE orders_orderid_seq RESTART 87257;
 
-COPY ITEMSTATUS
+-- the file has no unit prices, the items get today's menu prices
+CREATE TEMP TABLE itemstatus_load AS
+SELECT orderid, itemName, lastUpdated, status, comments FROM ITEMSTATUS WITH NO DATA;
+
+COPY itemstatus_load
 FROM '/tmp/hfanc001/project/data/itemStatus.csv'
 WITH DELIMITER ';';
 
+INSERT INTO ITEMSTATUS (orderid, itemName, lastUpdated, status, comments, unitPrice)
+SELECT L.orderid, L.itemName, L.lastUpdated, L.status, L.comments, M.price
+FROM itemstatus_load L LEFT JOIN MENU M ON M.itemName = L.itemName;
+
+DROP TABLE itemstatus_load;
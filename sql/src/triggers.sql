@@ -0,0 +1,118 @@
+-- Keeps Orders.total in sync with the items of the order.
+-- Adding an item adds its unit price times its quantity, removing it
+-- subtracts that, and a change of quantity adds or subtracts the
+-- difference.  The unit price is kept on the item, so neither the
+-- application nor this trigger reads Menu to change an order.
+CREATE OR REPLACE FUNCTION itemstatus_total()
+RETURNS trigger AS $$
+BEGIN
+	IF (TG_OP = 'INSERT') THEN
+		UPDATE Orders
+		SET total = total + NEW.quantity * NEW.unitPrice
+		WHERE orderid = NEW.orderid;
+		RETURN NEW;
+	ELSIF (TG_OP = 'DELETE') THEN
+		UPDATE Orders
+		SET total = total - OLD.quantity * OLD.unitPrice
+		WHERE orderid = OLD.orderid;
+		RETURN OLD;
+	ELSIF (TG_OP = 'UPDATE' AND NEW.quantity <> OLD.quantity) THEN
+		UPDATE Orders
+		SET total = total + (NEW.quantity - OLD.quantity) * NEW.unitPrice
+		WHERE orderid = NEW.orderid;
+		RETURN NEW;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS itemstatus_total ON ItemStatus;
+CREATE TRIGGER itemstatus_total
+AFTER INSERT OR DELETE OR UPDATE OF quantity ON ItemStatus
+FOR EACH ROW
+EXECUTE PROCEDURE itemstatus_total();
+
+-- Fills in the unit price of an item inserted without one from the
+-- current menu.  The application always sends the price, this only
+-- catches other writers.
+CREATE OR REPLACE FUNCTION itemstatus_price()
+RETURNS trigger AS $$
+BEGIN
+	IF (NEW.unitPrice IS NULL) THEN
+		SELECT M.price INTO NEW.unitPrice FROM Menu M WHERE M.itemName = NEW.itemName;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS itemstatus_price ON ItemStatus;
+CREATE TRIGGER itemstatus_price
+BEFORE INSERT ON ItemStatus
+FOR EACH ROW
+EXECUTE PROCEDURE itemstatus_price();
+
+-- Bumps MenuVersion once per statement that changes Menu.  The update is
+-- part of the writing transaction, so a reader that sees the new version
+-- also sees the new menu rows.
+CREATE OR REPLACE FUNCTION menu_version()
+RETURNS trigger AS $$
+BEGIN
+	UPDATE MenuVersion SET version = version + 1;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS menu_version ON Menu;
+CREATE TRIGGER menu_version
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Menu
+FOR EACH STATEMENT
+EXECUTE PROCEDURE menu_version();
+
+-- Publishes every new, removed or changed item status on the order_status
+-- channel as "orderid;operation;status;itemName".  NOTIFY is delivered
+-- when the writing transaction commits, so listeners never see a change
+-- that was rolled back.
+CREATE OR REPLACE FUNCTION itemstatus_notify()
+RETURNS trigger AS $$
+BEGIN
+	IF (TG_OP = 'DELETE') THEN
+		PERFORM pg_notify('order_status', OLD.orderid || ';' || TG_OP || ';' || COALESCE(rtrim(OLD.status), '') || ';' || rtrim(OLD.itemName));
+		RETURN OLD;
+	END IF;
+	IF (TG_OP = 'UPDATE' AND OLD.status IS NOT DISTINCT FROM NEW.status) THEN
+		RETURN NEW;
+	END IF;
+	PERFORM pg_notify('order_status', NEW.orderid || ';' || TG_OP || ';' || COALESCE(rtrim(NEW.status), '') || ';' || rtrim(NEW.itemName));
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS itemstatus_notify ON ItemStatus;
+CREATE TRIGGER itemstatus_notify
+AFTER INSERT OR DELETE OR UPDATE OF status ON ItemStatus
+FOR EACH ROW
+EXECUTE PROCEDURE itemstatus_notify();
+
+-- Bumps the version of every updated row of Orders and ItemStatus.  The
+-- application reads the version with the row and updates only if it is
+-- unchanged, so two people editing the same order never overwrite each
+-- other's change without a lock being held in between.
+CREATE OR REPLACE FUNCTION row_version()
+RETURNS trigger AS $$
+BEGIN
+	NEW.version := OLD.version + 1;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS orders_version ON Orders;
+CREATE TRIGGER orders_version
+BEFORE UPDATE ON Orders
+FOR EACH ROW
+EXECUTE PROCEDURE row_version();
+
+DROP TRIGGER IF EXISTS itemstatus_version ON ItemStatus;
+CREATE TRIGGER itemstatus_version
+BEFORE UPDATE ON ItemStatus
+FOR EACH ROW
+EXECUTE PROCEDURE row_version();